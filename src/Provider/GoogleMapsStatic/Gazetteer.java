@@ -0,0 +1,397 @@
+package Provider.GoogleMapsStatic;
+
+import jxl.*;
+import jxl.read.biff.BiffException;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Gazetteer
+ * <p/>
+ * A read-only list of named places (the countries of Countries.xls) with their coordinates, kept in
+ * a compact binary form. The spreadsheet is compiled once with {@link #main}; at runtime the compiled
+ * file is memory mapped (or read in one go when it is inside a jar) and names are decoded only when
+ * they are asked for, so loading needs neither jxl nor a workbook in memory. {@link #fromXls} reads
+ * the spreadsheet directly and is kept as a fallback for when the compiled file is missing.
+ * <p/>
+ * Places are looked up by index. {@link #indexOf} finds a name through a hash table and
+ * {@link #findPrefix} does case and accent insensitive prefix search over a sorted index, for
+ * type-ahead, and {@link #nearest} finds the places closest to a point through a {@link GeoIndex}.
+ * The indexes are built the first time they are needed.
+ * <p/>
+ * File layout, big endian:
+ * <pre>
+ * int    magic 'GAZ1'
+ * int    count
+ * int    latitude  * 1e6, count times
+ * int    longitude * 1e6, count times
+ * int    offset of each name in the names block, count + 1 times (the last is the block length)
+ * byte[] names block, UTF-8
+ * </pre>
+ */
+public class Gazetteer {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public static final int Magic = 0x47415A31;
+/** same fixed point scale as {@link MapRequest} */
+public static final double CoordinateScale = MapRequest.CoordinateScale;
+
+/** columns of Countries.xls, the first row holds the headers */
+public static final int XlsNameColumn = 0;
+public static final int XlsLatColumn = 4;
+public static final int XlsLonColumn = 5;
+
+private static final Charset UTF8 = Charset.forName("UTF-8");
+private static final int HeaderSize = 8;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final ByteBuffer _buf;
+private final int _count;
+private final int _latPos, _lonPos, _offsetPos, _namesPos;
+/** names decoded so far */
+private final String[] _names;
+
+/** open addressing table of place index + 1, 0 is empty. null until first used */
+private int[] _slots;
+/** normalized names, see {@link #normalize} */
+private String[] _keys;
+/** place indexes sorted by normalized name */
+private int[] _sorted;
+private GeoIndex _geo;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @throws IOException if the buffer doesn't hold a gazetteer */
+public Gazetteer(ByteBuffer buf) throws IOException {
+  _buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+  if (_buf.capacity() < HeaderSize || _buf.getInt(0) != Magic) throw new IOException("not a gazetteer");
+
+  _count = _buf.getInt(4);
+  _latPos = HeaderSize;
+  _lonPos = _latPos + 4 * _count;
+  _offsetPos = _lonPos + 4 * _count;
+  _namesPos = _offsetPos + 4 * (_count + 1);
+  if (_count < 0 || _namesPos > _buf.capacity() || _namesPos + _nameOffset(_count) != _buf.capacity())
+    throw new IOException("gazetteer is truncated or corrupt");
+
+  _names = new String[_count];
+}
+
+/**
+ * opens a compiled gazetteer. a file is memory mapped, anything else (eg. an entry in a jar) is read
+ * into memory in one go.
+ *
+ * @throws FileNotFoundException if url is null
+ */
+public static Gazetteer open(URL url) throws IOException {
+  if (url == null) throw new FileNotFoundException("no compiled gazetteer");
+
+  if ("file".equals(url.getProtocol())) {
+    File file;
+    try {
+      file = new File(url.toURI());
+    }
+    catch (URISyntaxException e) {
+      file = new File(url.getPath());
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // the mapping stays valid after the channel is closed
+      return new Gazetteer(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  InputStream in = url.openStream();
+  try {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    for (int n; (n = in.read(chunk)) != -1; ) out.write(chunk, 0, n);
+    return new Gazetteer(ByteBuffer.wrap(out.toByteArray()));
+  }
+  finally {
+    in.close();
+  }
+}
+
+/** reads the places straight from the spreadsheet, skipping the header row and incomplete rows */
+public static Gazetteer fromXls(InputStream xls) throws IOException {
+  Workbook w;
+  try {
+    w = Workbook.getWorkbook(xls);
+  }
+  catch (BiffException e) {
+    throw new IOException("can't read spreadsheet - " + e.getMessage());
+  }
+
+  try {
+    Sheet sheet = w.getSheet(0);
+    int rows = sheet.getRows();
+    String[] names = new String[rows];
+    double[] lat = new double[rows];
+    double[] lon = new double[rows];
+    int count = 0;
+    for (int j = 1; j < rows; j++) {
+      Cell name = sheet.getCell(XlsNameColumn, j);
+      Cell la = sheet.getCell(XlsLatColumn, j);
+      Cell lo = sheet.getCell(XlsLonColumn, j);
+      if (name.getType() != CellType.LABEL || la.getType() != CellType.NUMBER || lo.getType() != CellType.NUMBER)
+        continue;
+
+      names[count] = name.getContents();
+      lat[count] = ((NumberCell) la).getValue();
+      lon[count] = ((NumberCell) lo).getValue();
+      count++;
+    }
+    return new Gazetteer(_encode(names, lat, lon, count));
+  }
+  finally {
+    w.close();
+  }
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public int size() {
+  return _count;
+}
+
+public synchronized String getName(int i) {
+  String name = _names[i];
+  if (name == null) {
+    int start = _nameOffset(i);
+    int length = _nameOffset(i + 1) - start;
+    byte[] bytes = new byte[length];
+    ByteBuffer b = _buf.duplicate();
+    b.position(_namesPos + start);
+    b.get(bytes);
+    name = _names[i] = new String(bytes, UTF8);
+  }
+  return name;
+}
+
+public double getLat(int i) {
+  return _buf.getInt(_latPos + 4 * _checkIndex(i)) / CoordinateScale;
+}
+
+public double getLon(int i) {
+  return _buf.getInt(_lonPos + 4 * _checkIndex(i)) / CoordinateScale;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// lookup
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @return the index of the place with exactly this name, or -1 */
+public int indexOf(String name) {
+  int[] slots = _hashIndex();
+  int mask = slots.length - 1;
+  for (int slot = _spread(name.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+    int i = slots[slot] - 1;
+    if (getName(i).equals(name)) return i;
+  }
+  return -1;
+}
+
+/**
+ * @return the indexes of the places whose names start with the prefix, ignoring case and accents,
+ *         in alphabetical order and at most limit of them
+ */
+public int[] findPrefix(String prefix, int limit) {
+  _sortedIndex();
+  String key = normalize(prefix);
+
+  // first name not before the prefix
+  int lo = 0, hi = _count;
+  while (lo < hi) {
+    int mid = (lo + hi) >>> 1;
+    if (_keys[_sorted[mid]].compareTo(key) < 0) lo = mid + 1;
+    else hi = mid;
+  }
+
+  int end = lo;
+  while (end < _count && end - lo < limit && _keys[_sorted[end]].startsWith(key)) end++;
+  return Arrays.copyOfRange(_sorted, lo, end);
+}
+
+/** @return the index of the place closest to lat, lon, or -1 if there are no places */
+public int nearest(double lat, double lon) {
+  return _geoIndex().nearest(lat, lon);
+}
+
+/** @see GeoIndex#nearest(double, double, int[], double[]) */
+public int nearest(double lat, double lon, int[] places, double[] distKm) {
+  return _geoIndex().nearest(lat, lon, places, distKm);
+}
+
+/** the form names are compared in by {@link #findPrefix}: accents stripped, lower case */
+public static String normalize(String s) {
+  String d = Normalizer.normalize(s, Normalizer.Form.NFD);
+  StringBuilder sb = new StringBuilder(d.length());
+  for (int i = 0; i < d.length(); i++) {
+    char c = d.charAt(i);
+    if (Character.getType(c) != Character.NON_SPACING_MARK) sb.append(Character.toLowerCase(c));
+  }
+  return sb.toString();
+}
+
+/** writes the compiled form, which {@link #open} reads back */
+public void write(File file) throws IOException {
+  FileOutputStream out = new FileOutputStream(file);
+  try {
+    ByteBuffer b = _buf.duplicate();
+    b.clear();
+    out.getChannel().write(b);
+  }
+  finally {
+    out.close();
+  }
+}
+
+public String toString() {
+  return "Gazetteer[places=" + _count + ", bytes=" + _buf.capacity() + "]";
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private int _nameOffset(int i) {
+  return _buf.getInt(_offsetPos + 4 * i);
+}
+
+private synchronized int[] _hashIndex() {
+  if (_slots == null) {
+    int size = Integer.highestOneBit(Math.max(2, _count) * 2 - 1) << 1;
+    int[] slots = new int[size];
+    for (int i = 0; i < _count; i++) {
+      int slot = _spread(getName(i).hashCode()) & (size - 1);
+      while (slots[slot] != 0) slot = (slot + 1) & (size - 1);
+      slots[slot] = i + 1;
+    }
+    _slots = slots;
+  }
+  return _slots;
+}
+
+private synchronized void _sortedIndex() {
+  if (_sorted != null) return;
+
+  final String[] keys = new String[_count];
+  Integer[] order = new Integer[_count];
+  for (int i = 0; i < _count; i++) {
+    keys[i] = normalize(getName(i));
+    order[i] = i;
+  }
+  Arrays.sort(order, new Comparator<Integer>() {
+    public int compare(Integer a, Integer b) {
+      return keys[a].compareTo(keys[b]);
+    }
+  });
+
+  int[] sorted = new int[_count];
+  for (int i = 0; i < _count; i++) sorted[i] = order[i];
+  _keys = keys;
+  _sorted = sorted;
+}
+
+private synchronized GeoIndex _geoIndex() {
+  if (_geo == null) {
+    double[] lat = new double[_count];
+    double[] lon = new double[_count];
+    for (int i = 0; i < _count; i++) {
+      lat[i] = getLat(i);
+      lon[i] = getLon(i);
+    }
+    _geo = new GeoIndex(lat, lon, _count);
+  }
+  return _geo;
+}
+
+/** String hash codes of similar names differ mostly in the low bits, mix in the high ones */
+private static int _spread(int h) {
+  return h ^ (h >>> 16);
+}
+
+private int _checkIndex(int i) {
+  if (i < 0 || i >= _count) throw new IndexOutOfBoundsException("place " + i + " of " + _count);
+  return i;
+}
+
+private static ByteBuffer _encode(String[] names, double[] lat, double[] lon, int count) {
+  byte[][] utf8 = new byte[count][];
+  int namesLength = 0;
+  for (int i = 0; i < count; i++) {
+    utf8[i] = names[i].getBytes(UTF8);
+    namesLength += utf8[i].length;
+  }
+
+  ByteBuffer b = ByteBuffer.allocate(HeaderSize + 4 * count * 3 + 4 + namesLength);
+  b.putInt(Magic).putInt(count);
+  for (int i = 0; i < count; i++) b.putInt((int) Math.round(lat[i] * CoordinateScale));
+  for (int i = 0; i < count; i++) b.putInt((int) Math.round(lon[i] * CoordinateScale));
+  int offset = 0;
+  for (int i = 0; i < count; i++) {
+    b.putInt(offset);
+    offset += utf8[i].length;
+  }
+  b.putInt(offset);
+  for (int i = 0; i < count; i++) b.put(utf8[i]);
+  b.flip();
+  return b;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// compiler
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * compiles a spreadsheet into a gazetteer file, eg.
+ * <pre>
+ * java Provider.GoogleMapsStatic.Gazetteer src/Provider/GoogleMapsStatic/TestUI/Countries.xls
+ *                                          src/Provider/GoogleMapsStatic/TestUI/Countries.gaz
+ * </pre>
+ * run it again whenever the spreadsheet changes.
+ */
+public static void main(String[] args) throws IOException {
+  if (args.length != 2) {
+    System.err.println("usage: Gazetteer <in.xls> <out.gaz>");
+    System.exit(1);
+  }
+
+  long start = System.nanoTime();
+  InputStream in = new FileInputStream(args[0]);
+  Gazetteer g;
+  try {
+    g = fromXls(in);
+  }
+  finally {
+    in.close();
+  }
+  long parsed = System.nanoTime();
+  g.write(new File(args[1]));
+
+  long opened = System.nanoTime();
+  Gazetteer check = open(new File(args[1]).toURI().toURL());
+  long loaded = System.nanoTime();
+  for (int i = 0; i < g.size(); i++) {
+    if (!g.getName(i).equals(check.getName(i)) || g.getLat(i) != check.getLat(i) || g.getLon(i) != check.getLon(i))
+      throw new IOException("place " + i + " didn't survive the round trip");
+  }
+
+  System.out.println("wrote " + args[1] + " - " + check);
+  System.out.println("xls parse " + (parsed - start) / 1000 + "us, compiled load " + (loaded - opened) / 1000 + "us");
+}
+
+}//end class Gazetteer
@@ -0,0 +1,239 @@
+package Provider.GoogleMapsStatic;
+
+/**
+ * GeoIndex
+ * <p/>
+ * A static k-d tree over points on the globe, for nearest neighbour and k nearest neighbour queries
+ * (eg. "which country is the map centered in"). Points are stored as unit vectors, so the straight
+ * line distance between them orders points the same way as the great circle distance, and there is
+ * no special case at the poles or where longitude wraps around.
+ * <p/>
+ * The tree is implicit: the points are reordered so that the median of every range is its splitting
+ * node, with the split axis cycling x, y, z by depth. It takes four arrays and no node objects, and a
+ * query allocates nothing beyond its result.
+ */
+public class GeoIndex {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** mean earth radius */
+public static final double EarthRadiusKm = 6371.0088;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** point coordinates as [x0, y0, z0, x1, y1, z1, ...], in tree order */
+private final double[] _xyz;
+/** the id given for each point, in tree order */
+private final int[] _ids;
+private final int _count;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** indexes the points lat[i], lon[i], which queries report as i */
+public GeoIndex(double[] lat, double[] lon, int count) {
+  this(lat, lon, null, count);
+}
+
+/**
+ * indexes the points lat[i], lon[i], which queries report as ids[i]
+ *
+ * @param ids null to use i
+ */
+public GeoIndex(double[] lat, double[] lon, int[] ids, int count) {
+  _count = count;
+  _xyz = new double[3 * count];
+  _ids = new int[count];
+  for (int i = 0; i < count; i++) {
+    _toXyz(lat[i], lon[i], _xyz, 3 * i);
+    _ids[i] = ids == null ? i : ids[i];
+  }
+  _build(0, count, 0);
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// queries
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public int size() {
+  return _count;
+}
+
+/** @return the id of the point closest to lat, lon, or -1 if the index is empty */
+public int nearest(double lat, double lon) {
+  int[] ids = new int[1];
+  return nearest(lat, lon, ids, null) == 0 ? -1 : ids[0];
+}
+
+/**
+ * finds the points closest to lat, lon, as many as fit in ids.
+ *
+ * @param ids     filled with the ids of the closest points, closest first
+ * @param distKm  null, or filled with the great circle distance of each of them
+ * @return how many were found, less than ids.length only if the index has fewer points
+ */
+public int nearest(double lat, double lon, int[] ids, double[] distKm) {
+  double[] q = new double[3];
+  _toXyz(lat, lon, q, 0);
+
+  // best candidates so far as a max heap on squared chord length, the worst on top
+  Heap heap = new Heap(Math.min(ids.length, _count));
+  if (heap._capacity > 0) _search(0, _count, 0, q, heap);
+
+  // unload the heap worst first so the result ends up closest first
+  int found = heap._size;
+  for (int i = found - 1; i >= 0; i--) {
+    if (distKm != null) distKm[i] = chordToKm(heap._keys[0]);
+    ids[i] = heap._ids[0];
+    heap.pop();
+  }
+  return found;
+}
+
+/** great circle distance between two points */
+public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+  double dLat = Math.toRadians(lat2 - lat1);
+  double dLon = Math.toRadians(lon2 - lon1);
+  double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+             Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+  return 2 * EarthRadiusKm * Math.asin(Math.min(1, Math.sqrt(a)));
+}
+
+/** great circle distance for a squared chord length between unit vectors */
+static double chordToKm(double chord2) {
+  return 2 * EarthRadiusKm * Math.asin(Math.min(1, Math.sqrt(chord2) / 2));
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private static void _toXyz(double lat, double lon, double[] xyz, int at) {
+  double phi = Math.toRadians(lat);
+  double lambda = Math.toRadians(lon);
+  double c = Math.cos(phi);
+  xyz[at] = c * Math.cos(lambda);
+  xyz[at + 1] = c * Math.sin(lambda);
+  xyz[at + 2] = Math.sin(phi);
+}
+
+/** reorders [from, to) so its median on the depth's axis sits in the middle, then recurses */
+private void _build(int from, int to, int depth) {
+  if (to - from < 2) return;
+  int mid = (from + to) >>> 1;
+  _select(from, to - 1, mid, depth % 3);
+  _build(from, mid, depth + 1);
+  _build(mid + 1, to, depth + 1);
+}
+
+/** quickselect: puts the k-th smallest of [lo, hi] on the axis at k, smaller before, larger after */
+private void _select(int lo, int hi, int k, int axis) {
+  while (hi > lo) {
+    double pivot = _xyz[3 * ((lo + hi) >>> 1) + axis];
+    int i = lo, j = hi;
+    while (i <= j) {
+      while (_xyz[3 * i + axis] < pivot) i++;
+      while (_xyz[3 * j + axis] > pivot) j--;
+      if (i <= j) _swap(i++, j--);
+    }
+    if (k <= j) hi = j;
+    else if (k >= i) lo = i;
+    else return;
+  }
+}
+
+private void _swap(int a, int b) {
+  for (int c = 0; c < 3; c++) {
+    double t = _xyz[3 * a + c];
+    _xyz[3 * a + c] = _xyz[3 * b + c];
+    _xyz[3 * b + c] = t;
+  }
+  int t = _ids[a];
+  _ids[a] = _ids[b];
+  _ids[b] = t;
+}
+
+private void _search(int from, int to, int depth, double[] q, Heap heap) {
+  if (from >= to) return;
+  int mid = (from + to) >>> 1;
+  int axis = depth % 3;
+
+  double dx = _xyz[3 * mid] - q[0];
+  double dy = _xyz[3 * mid + 1] - q[1];
+  double dz = _xyz[3 * mid + 2] - q[2];
+  heap.offer(dx * dx + dy * dy + dz * dz, _ids[mid]);
+
+  // the side the query is on first, the other only if it could hold something closer
+  double diff = q[axis] - _xyz[3 * mid + axis];
+  if (diff < 0) {
+    _search(from, mid, depth + 1, q, heap);
+    if (!heap.isFull() || diff * diff < heap.worst()) _search(mid + 1, to, depth + 1, q, heap);
+  }
+  else {
+    _search(mid + 1, to, depth + 1, q, heap);
+    if (!heap.isFull() || diff * diff < heap.worst()) _search(from, mid, depth + 1, q, heap);
+  }
+}
+
+/** fixed size max heap of (squared distance, id) */
+private static class Heap {
+  private final double[] _keys;
+  private final int[] _ids;
+  private final int _capacity;
+  private int _size;
+
+  Heap(int capacity) {
+    _capacity = capacity;
+    _keys = new double[capacity];
+    _ids = new int[capacity];
+  }
+
+  boolean isFull() {
+    return _size == _capacity;
+  }
+
+  double worst() {
+    return _keys[0];
+  }
+
+  /** adds the candidate if there is room or it beats the worst one kept */
+  void offer(double key, int id) {
+    if (_size < _capacity) {
+      int i = _size++;
+      while (i > 0 && _keys[(i - 1) / 2] < key) {
+        _keys[i] = _keys[(i - 1) / 2];
+        _ids[i] = _ids[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      _keys[i] = key;
+      _ids[i] = id;
+    }
+    else if (key < _keys[0]) {
+      _siftDown(key, id);
+    }
+  }
+
+  /** removes the worst candidate */
+  void pop() {
+    _size--;
+    if (_size > 0) _siftDown(_keys[_size], _ids[_size]);
+  }
+
+  /** puts key, id at the root and sinks it into place */
+  private void _siftDown(double key, int id) {
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= _size) break;
+      if (child + 1 < _size && _keys[child + 1] > _keys[child]) child++;
+      if (_keys[child] <= key) break;
+      _keys[i] = _keys[child];
+      _ids[i] = _ids[child];
+      i = child;
+    }
+    _keys[i] = key;
+    _ids[i] = id;
+  }
+}// class Heap
+
+}//end class GeoIndex
@@ -0,0 +1,223 @@
+package Provider.GoogleMapsStatic;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.List;
+
+/**
+ * MapCanvas
+ * <p/>
+ * A map image together with the view it shows and the part of it that holds real map pixels. Panning
+ * doesn't have to wait for a whole new map: {@link #panTo} shifts the current pixels by the pan offset
+ * straight away, which leaves a band along one edge empty, and {@link #getMissingStrip} is the
+ * (much smaller) request that covers just that band. When it arrives {@link #fill} draws it in.
+ * Zooming can't be filled in like that, but {@link #preview} gives a rescaled placeholder to show
+ * while the real map loads.
+ * <p/>
+ * Canvases are never changed once made, every operation returns a new one, so the image of a canvas
+ * can safely be on screen while the next one is being built.
+ */
+public class MapCanvas {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** what the not yet loaded part of a canvas looks like */
+public static final Color MissingColor = new Color(0xe5e3df);
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final MapRequest _view;
+private final BufferedImage _image;
+private final Rectangle _valid;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** a canvas that is entirely covered by the given image of the view */
+public MapCanvas(MapRequest view, BufferedImage image) {
+  this(view, image, new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+}
+
+private MapCanvas(MapRequest view, BufferedImage image, Rectangle valid) {
+  _view = view;
+  _image = image;
+  _valid = valid;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapRequest getView() {
+  return _view;
+}
+
+public BufferedImage getImage() {
+  return _image;
+}
+
+/** true if every pixel holds real map data */
+public boolean isComplete() {
+  return _valid.width == _image.getWidth() && _valid.height == _image.getHeight();
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// panning
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * the canvas for a new view, made by shifting this canvas's pixels by the offset between the two
+ * centers.
+ *
+ * @return the shifted canvas, or null if the new view has a different zoom or size or doesn't
+ *         overlap this one at all
+ */
+public MapCanvas panTo(MapRequest view) {
+  if (view.getZoom() != _view.getZoom() ||
+      view.getSizeW() != _view.getSizeW() ||
+      view.getSizeH() != _view.getSizeH()) {
+    return null;
+  }
+
+  int zoom = view.getZoom();
+  double world = MapProjection.worldSize(zoom);
+  double dx = MapProjection.lonToX(view.getLon(), zoom) - MapProjection.lonToX(_view.getLon(), zoom);
+  if (dx > world / 2) dx -= world;
+  else if (dx < -world / 2) dx += world;
+  double dy = MapProjection.latToY(view.getLat(), zoom) - MapProjection.latToY(_view.getLat(), zoom);
+
+  Rectangle valid = new Rectangle(_valid);
+  valid.translate(-(int) Math.round(dx), -(int) Math.round(dy));
+  valid = valid.intersection(new Rectangle(0, 0, _image.getWidth(), _image.getHeight()));
+  if (valid.isEmpty()) return null;
+
+  BufferedImage img = new BufferedImage(_image.getWidth(), _image.getHeight(), BufferedImage.TYPE_INT_RGB);
+  Graphics2D g = img.createGraphics();
+  try {
+    g.setColor(MissingColor);
+    g.fillRect(0, 0, img.getWidth(), img.getHeight());
+    g.setClip(valid);
+    g.drawImage(_image, -(int) Math.round(dx), -(int) Math.round(dy), null);
+  }
+  finally {
+    g.dispose();
+  }
+
+  return new MapCanvas(view, img, valid);
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// zoom preview
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * a placeholder for a view, made by scaling and positioning the given canvases (which may be at
+ * any zoom) where they fall in it. later sources are drawn over earlier ones. the placeholder counts
+ * as having no real pixels, so nothing is ever fetched to fill it in; it is only shown until the real
+ * map for the view arrives.
+ */
+public static MapCanvas preview(MapRequest view, List<MapCanvas> sources) {
+  int zoom = view.getZoom();
+  double world = MapProjection.worldSize(zoom);
+  double left = MapProjection.lonToX(view.getLon(), zoom) - view.getSizeW() / 2.0;
+  double top = MapProjection.latToY(view.getLat(), zoom) - view.getSizeH() / 2.0;
+
+  BufferedImage img = new BufferedImage(view.getSizeW(), view.getSizeH(), BufferedImage.TYPE_INT_RGB);
+  Graphics2D g = img.createGraphics();
+  try {
+    g.setColor(MissingColor);
+    g.fillRect(0, 0, img.getWidth(), img.getHeight());
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+    for (MapCanvas source : sources) {
+      MapRequest s = source.getView();
+      double scale = Math.pow(2, zoom - s.getZoom());
+
+      // where the source's top left corner lands in the view, in view pixels
+      double x = (MapProjection.lonToX(s.getLon(), s.getZoom()) - s.getSizeW() / 2.0) * scale - left;
+      double y = (MapProjection.latToY(s.getLat(), s.getZoom()) - s.getSizeH() / 2.0) * scale - top;
+      if (x > world / 2) x -= world;
+      else if (x < -world / 2) x += world;
+
+      AffineTransform at = AffineTransform.getTranslateInstance(x, y);
+      at.scale(scale, scale);
+      g.setClip(source._valid.isEmpty() ? null : at.createTransformedShape(source._valid));
+      g.drawImage(source._image, at, null);
+    }
+  }
+  finally {
+    g.dispose();
+  }
+
+  return new MapCanvas(view, img, new Rectangle());
+}
+
+/** the part of the canvas that isn't loaded yet, or null if it is complete or isn't a single band */
+public Rectangle getMissingRect() {
+  int w = _image.getWidth();
+  int h = _image.getHeight();
+
+  if (_valid.width == w && _valid.height < h) {
+    return _valid.y == 0 ? new Rectangle(0, _valid.height, w, h - _valid.height) : new Rectangle(0, 0, w, _valid.y);
+  }
+  if (_valid.height == h && _valid.width < w) {
+    return _valid.x == 0 ? new Rectangle(_valid.width, 0, w - _valid.width, h) : new Rectangle(0, 0, _valid.x, h);
+  }
+  return null;
+}
+
+/**
+ * the request covering the missing band (widened to {@link MapLookup#SizeMin} if it is thinner),
+ * without a center marker, or null if there is no single band to fetch. a view with a center
+ * marker can't be completed from a strip, the shifted pixels have the marker where the old center
+ * was.
+ */
+public MapRequest getMissingStrip() {
+  Rectangle r = _stripRect();
+  if (r == null) return null;
+
+  int zoom = _view.getZoom();
+  double left = MapProjection.lonToX(_view.getLon(), zoom) - _image.getWidth() / 2.0;
+  double top = MapProjection.latToY(_view.getLat(), zoom) - _image.getHeight() / 2.0;
+
+  double lat = MapProjection.yToLat(top + r.y + r.height / 2.0, zoom);
+  double lon = MapProjection.wrapLon(MapProjection.xToLon(left + r.x + r.width / 2.0, zoom));
+  return new MapRequest(lat, lon, r.width, r.height, zoom, false, false);
+}
+
+/** @return a complete canvas: this one with the strip image drawn over its missing band */
+public MapCanvas fill(BufferedImage strip) {
+  Rectangle r = _stripRect();
+  if (r == null) return this;
+
+  BufferedImage img = new BufferedImage(_image.getWidth(), _image.getHeight(), BufferedImage.TYPE_INT_RGB);
+  Graphics2D g = img.createGraphics();
+  try {
+    g.drawImage(_image, 0, 0, null);
+    g.drawImage(strip, r.x, r.y, null);
+  }
+  finally {
+    g.dispose();
+  }
+
+  return new MapCanvas(_view, img);
+}
+
+/** the missing band, grown inwards to at least SizeMin pixels */
+private Rectangle _stripRect() {
+  Rectangle r = getMissingRect();
+  if (r == null) return null;
+
+  r = new Rectangle(r);
+  if (r.width < MapLookup.SizeMin) {
+    if (r.x > 0) r.x = _image.getWidth() - MapLookup.SizeMin;
+    r.width = MapLookup.SizeMin;
+  }
+  if (r.height < MapLookup.SizeMin) {
+    if (r.y > 0) r.y = _image.getHeight() - MapLookup.SizeMin;
+    r.height = MapLookup.SizeMin;
+  }
+  return r;
+}
+
+}//end class MapCanvas
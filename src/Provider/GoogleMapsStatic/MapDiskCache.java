@@ -0,0 +1,469 @@
+package Provider.GoogleMapsStatic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * MapDiskCache
+ * <p/>
+ * Persistent cache of the image bytes returned by {@link MapLookup#getDataFromURI}, so a restarted
+ * app can show familiar areas without going to the network.
+ * <p/>
+ * Images are stored content addressed: each distinct image is written once as
+ * <code>{dir}/{xx}/{sha1}.png</code>, however many requests return it (open ocean, empty land at low
+ * zoom). Requests are found through <code>{dir}/index.dat</code>, a memory mapped open addressing
+ * hash table of fixed size slots, so a lookup touches a handful of slots and never reads the whole
+ * index. Each slot records the request hash, the image hash and size, and a logical clock value of
+ * its last use; when the images on disk grow past the size cap the least recently used slots are
+ * dropped, and an image file is deleted once no slot refers to it.
+ */
+public class MapDiskCache {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public static final long MaxBytesDefault = 256L * 1024 * 1024;
+public static final int SlotCountDefault = 1 << 14;
+
+public static final String IndexFileName = "index.dat";
+public static final String BlobSuffix = ".png";
+
+/** names of the blob directories and blobs (hex sha1 of the image), the only files _deleteBlobs removes */
+private static final Pattern BlobDirPattern = Pattern.compile("[0-9a-f]{2}");
+private static final Pattern BlobNamePattern = Pattern.compile("[0-9a-f]{40}" + Pattern.quote(BlobSuffix) + "(\\.tmp)?");
+
+private static final int Magic = 0x474d4443; // GMDC
+private static final int Version = 1;
+
+/** magic, version, slot count, padding, clock */
+private static final int HeaderSize = 24;
+private static final int ClockOffset = 16;
+
+/** state, padding, size, key hash, last used, sha1 of the image, padding */
+private static final int SlotSize = 48;
+private static final int StateOffset = 0;
+private static final int BlobSizeOffset = 4;
+private static final int KeyOffset = 8;
+private static final int LastUsedOffset = 16;
+private static final int ContentOffset = 24;
+private static final int ContentLength = 20;
+
+private static final byte Empty = 0;
+private static final byte Live = 1;
+private static final byte Deleted = 2;
+
+/** compact or evict once this fraction of the slots is live or deleted */
+private static final double MaxLoad = 0.75;
+/** eviction frees space down to this fraction of the size cap */
+private static final double EvictTo = 0.9;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final File _dir;
+private final long _maxBytes;
+private final int _slotCount;
+
+private final RandomAccessFile _indexFile;
+private final MappedByteBuffer _index;
+
+/** number of live slots referring to each image, keyed by hex sha1 */
+private final HashMap<String, Integer> _refCounts = new HashMap<String, Integer>();
+private long _totalBytes;
+private int _liveSlots;
+private int _deletedSlots;
+private long _clock;
+
+private long _hits;
+private long _misses;
+private long _evictions;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapDiskCache(File dir) throws IOException {
+  this(dir, MaxBytesDefault, SlotCountDefault);
+}
+
+/**
+ * opens the cache in the given directory, creating it if needed. an existing index with a
+ * different slot count, or one that can't be read, is discarded along with the images.
+ */
+public MapDiskCache(File dir, long maxBytes, int slotCount) throws IOException {
+  if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+  if (slotCount < 16 || Integer.bitCount(slotCount) != 1)
+    throw new IllegalArgumentException("slotCount must be a power of 2, at least 16");
+
+  if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("can't create cache directory " + dir);
+
+  _dir = dir;
+  _maxBytes = maxBytes;
+  _slotCount = slotCount;
+
+  File indexFile = new File(dir, IndexFileName);
+  long length = HeaderSize + (long) slotCount * SlotSize;
+  boolean fresh = !indexFile.exists() || indexFile.length() != length;
+
+  _indexFile = new RandomAccessFile(indexFile, "rw");
+  _indexFile.setLength(length);
+  _index = _indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+
+  if (!fresh && (_index.getInt(0) != Magic || _index.getInt(4) != Version || _index.getInt(8) != slotCount)) {
+    fresh = true;
+  }
+
+  if (fresh) _reset();
+  else _load();
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// cache operations
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @return the cached image bytes for the request, or null if they are not on disk */
+public synchronized byte[] get(MapRequest request) {
+  int slot = _find(_keyHash(request));
+  if (slot < 0) {
+    _misses++;
+    return null;
+  }
+
+  File blob = _blobFile(_contentHex(slot));
+  byte[] data;
+  try {
+    data = _readFile(blob, _index.getInt(_slotPos(slot) + BlobSizeOffset));
+  }
+  catch (IOException e) {
+    // the image went missing or is truncated, forget about it
+    _remove(slot);
+    _misses++;
+    return null;
+  }
+
+  _index.putLong(_slotPos(slot) + LastUsedOffset, _tick());
+  _hits++;
+  return data;
+}
+
+/** stores the image bytes for the request, then evicts old entries if the cache is over its cap */
+public synchronized void put(MapRequest request, byte[] data) throws IOException {
+  if (data.length > _maxBytes) return;
+
+  byte[] content = _sha1(data);
+  String hex = _hex(content);
+  long key = _keyHash(request);
+
+  int slot = _find(key);
+  if (slot >= 0) {
+    if (hex.equals(_contentHex(slot))) {
+      _index.putLong(_slotPos(slot) + LastUsedOffset, _tick());
+      return;
+    }
+    _remove(slot);
+  }
+
+  if (_liveSlots + _deletedSlots + 1 > _slotCount * MaxLoad) _makeRoom();
+
+  if (!_refCounts.containsKey(hex)) {
+    _writeBlob(_blobFile(hex), data);
+    _totalBytes += data.length;
+    _refCounts.put(hex, 0);
+  }
+
+  slot = _insertionSlot(key);
+  int pos = _slotPos(slot);
+  if (_index.get(pos + StateOffset) == Deleted) _deletedSlots--;
+  _index.put(pos + StateOffset, Live);
+  _index.putInt(pos + BlobSizeOffset, data.length);
+  _index.putLong(pos + KeyOffset, key);
+  _index.putLong(pos + LastUsedOffset, _tick());
+  for (int i = 0; i < ContentLength; i++) _index.put(pos + ContentOffset + i, content[i]);
+  _liveSlots++;
+  _refCounts.put(hex, _refCounts.get(hex) + 1);
+
+  if (_totalBytes > _maxBytes) _evict((long) (_maxBytes * EvictTo), _slotCount);
+}
+
+/** writes the index back to disk and releases it. the cache can't be used afterwards. */
+public synchronized void close() throws IOException {
+  _index.force();
+  _indexFile.close();
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// statistics
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public synchronized long getHits() {
+  return _hits;
+}
+
+public synchronized long getMisses() {
+  return _misses;
+}
+
+public synchronized long getEvictions() {
+  return _evictions;
+}
+
+/** number of requests that have an image on disk */
+public synchronized int getEntryCount() {
+  return _liveSlots;
+}
+
+/** number of distinct images on disk */
+public synchronized int getImageCount() {
+  return _refCounts.size();
+}
+
+/** bytes used by the images on disk */
+public synchronized long getSize() {
+  return _totalBytes;
+}
+
+public File getDirectory() {
+  return _dir;
+}
+
+public synchronized String toString() {
+  return "MapDiskCache[entries=" + _liveSlots +
+         ", images=" + _refCounts.size() +
+         ", size=" + _totalBytes + "/" + _maxBytes +
+         ", hits=" + _hits +
+         ", misses=" + _misses +
+         ", evictions=" + _evictions + "]";
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// index handling
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private void _reset() {
+  for (int i = HeaderSize; i < _index.capacity(); i++) _index.put(i, Empty);
+  _index.putInt(0, Magic);
+  _index.putInt(4, Version);
+  _index.putInt(8, _slotCount);
+  _index.putLong(ClockOffset, 0);
+
+  _deleteBlobs();
+}
+
+/** rebuilds the reference counts and totals from an existing index */
+private void _load() {
+  _clock = _index.getLong(ClockOffset);
+  for (int slot = 0; slot < _slotCount; slot++) {
+    byte state = _index.get(_slotPos(slot) + StateOffset);
+    if (state == Deleted) {
+      _deletedSlots++;
+    }
+    else if (state == Live) {
+      _liveSlots++;
+      String hex = _contentHex(slot);
+      Integer refs = _refCounts.get(hex);
+      if (refs == null) {
+        refs = 0;
+        _totalBytes += _index.getInt(_slotPos(slot) + BlobSizeOffset);
+      }
+      _refCounts.put(hex, refs + 1);
+    }
+  }
+}
+
+private int _slotPos(int slot) {
+  return HeaderSize + slot * SlotSize;
+}
+
+/** @return the live slot holding the key, or -1 */
+private int _find(long key) {
+  int mask = _slotCount - 1;
+  for (int i = 0, slot = (int) (key ^ (key >>> 32)) & mask; i < _slotCount; i++, slot = (slot + 1) & mask) {
+    int pos = _slotPos(slot);
+    byte state = _index.get(pos + StateOffset);
+    if (state == Empty) return -1;
+    if (state == Live && _index.getLong(pos + KeyOffset) == key) return slot;
+  }
+  return -1;
+}
+
+/** @return the first empty or deleted slot on the key's probe sequence */
+private int _insertionSlot(long key) {
+  int mask = _slotCount - 1;
+  for (int i = 0, slot = (int) (key ^ (key >>> 32)) & mask; i < _slotCount; i++, slot = (slot + 1) & mask) {
+    if (_index.get(_slotPos(slot) + StateOffset) != Live) return slot;
+  }
+  throw new IllegalStateException("disk cache index is full");
+}
+
+/** marks the slot deleted and drops its image if nothing else refers to it */
+private void _remove(int slot) {
+  String hex = _contentHex(slot);
+  int pos = _slotPos(slot);
+  _index.put(pos + StateOffset, Deleted);
+  _liveSlots--;
+  _deletedSlots++;
+
+  Integer refs = _refCounts.get(hex);
+  if (refs == null || refs <= 1) {
+    _refCounts.remove(hex);
+    _totalBytes -= _index.getInt(pos + BlobSizeOffset);
+    _blobFile(hex).delete();
+  }
+  else {
+    _refCounts.put(hex, refs - 1);
+  }
+}
+
+/**
+ * called when the table is too full to insert. evicts the least recently used entries if most
+ * slots are live, then rewrites the table without its deleted slots.
+ */
+private void _makeRoom() {
+  if (_liveSlots + 1 > _slotCount * MaxLoad / 2) _evict(Long.MAX_VALUE, (int) (_slotCount * MaxLoad / 2));
+
+  ArrayList<byte[]> live = new ArrayList<byte[]>(_liveSlots);
+  for (int slot = 0; slot < _slotCount; slot++) {
+    int pos = _slotPos(slot);
+    if (_index.get(pos + StateOffset) == Live) {
+      byte[] copy = new byte[SlotSize];
+      _index.position(pos);
+      _index.get(copy);
+      live.add(copy);
+    }
+    for (int i = 0; i < SlotSize; i++) _index.put(pos + i, Empty);
+  }
+  _deletedSlots = 0;
+
+  for (byte[] copy : live) {
+    long key = ByteBuffer.wrap(copy).getLong(KeyOffset);
+    _index.position(_slotPos(_insertionSlot(key)));
+    _index.put(copy);
+  }
+}
+
+/** removes least recently used entries until the images fit in maxBytes and at most maxSlots are live */
+private void _evict(long maxBytes, int maxSlots) {
+  ArrayList<long[]> lru = new ArrayList<long[]>(_liveSlots);
+  for (int slot = 0; slot < _slotCount; slot++) {
+    int pos = _slotPos(slot);
+    if (_index.get(pos + StateOffset) == Live) lru.add(new long[]{_index.getLong(pos + LastUsedOffset), slot});
+  }
+  Collections.sort(lru, new Comparator<long[]>() {
+    public int compare(long[] a, long[] b) {
+      return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+    }
+  });
+
+  for (long[] entry : lru) {
+    if (_totalBytes <= maxBytes && _liveSlots <= maxSlots) break;
+    _remove((int) entry[1]);
+    _evictions++;
+  }
+}
+
+private long _tick() {
+  _index.putLong(ClockOffset, ++_clock);
+  return _clock;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// image files
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private File _blobFile(String hex) {
+  return new File(new File(_dir, hex.substring(0, 2)), hex + BlobSuffix);
+}
+
+/** writes to a temp file first so a crash never leaves a half written image under its real name */
+private void _writeBlob(File blob, byte[] data) throws IOException {
+  File parent = blob.getParentFile();
+  if (!parent.isDirectory() && !parent.mkdirs()) throw new IOException("can't create " + parent);
+
+  File tmp = new File(parent, blob.getName() + ".tmp");
+  FileOutputStream out = new FileOutputStream(tmp);
+  try {
+    out.write(data);
+  }
+  finally {
+    out.close();
+  }
+
+  if (!tmp.renameTo(blob)) {
+    blob.delete();
+    if (!tmp.renameTo(blob)) throw new IOException("can't rename " + tmp + " to " + blob);
+  }
+}
+
+private byte[] _readFile(File file, int size) throws IOException {
+  if (file.length() != size) throw new IOException(file + " is not " + size + " bytes");
+
+  byte[] data = new byte[size];
+  DataInputStream in = new DataInputStream(new FileInputStream(file));
+  try {
+    in.readFully(data);
+  }
+  finally {
+    in.close();
+  }
+  return data;
+}
+
+/**
+ * deletes the images of a stale cache. only files named like a blob (or its temp file) in directories
+ * named like a blob prefix are touched, and a directory is only removed once it is empty, so pointing
+ * mapcache.dir at a directory that holds other files never loses them.
+ */
+private void _deleteBlobs() {
+  File[] dirs = _dir.listFiles();
+  if (dirs == null) return;
+  for (File d : dirs) {
+    if (!d.isDirectory() || !BlobDirPattern.matcher(d.getName()).matches()) continue;
+    File[] blobs = d.listFiles();
+    if (blobs == null) continue;
+    for (File b : blobs) {
+      if (b.isFile() && BlobNamePattern.matcher(b.getName()).matches() &&
+          b.getName().startsWith(d.getName())) b.delete();
+    }
+    String[] left = d.list();
+    if (left != null && left.length == 0) d.delete();
+  }
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// hashing
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private static long _keyHash(MapRequest request) {
+  byte[] h;
+  try {
+    h = _sha1(request.toString().getBytes("UTF-8"));
+  }
+  catch (UnsupportedEncodingException e) {
+    throw new IllegalStateException(e);
+  }
+  return ByteBuffer.wrap(h).getLong();
+}
+
+private static byte[] _sha1(byte[] data) {
+  try {
+    return MessageDigest.getInstance("SHA-1").digest(data);
+  }
+  catch (NoSuchAlgorithmException e) {
+    throw new IllegalStateException(e);
+  }
+}
+
+private String _contentHex(int slot) {
+  byte[] content = new byte[ContentLength];
+  int pos = _slotPos(slot) + ContentOffset;
+  for (int i = 0; i < ContentLength; i++) content[i] = _index.get(pos + i);
+  return _hex(content);
+}
+
+private static String _hex(byte[] bytes) {
+  StringBuilder sb = new StringBuilder(bytes.length * 2);
+  for (byte b : bytes) {
+    sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+  }
+  return sb.toString();
+}
+
+}//end class MapDiskCache
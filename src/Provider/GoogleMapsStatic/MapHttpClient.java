@@ -0,0 +1,104 @@
+package Provider.GoogleMapsStatic;
+
+import org.apache.commons.httpclient.*;
+import org.apache.commons.httpclient.params.*;
+import org.apache.commons.httpclient.util.*;
+
+/**
+ * MapHttpClient
+ * <p/>
+ * Holds the one {@link HttpClient} that every map fetch goes through. It is backed by a
+ * {@link MultiThreadedHttpConnectionManager}, so connections to the static maps host are kept alive
+ * and reused across pans, zooms and slider changes instead of paying a fresh TCP connect each time.
+ * Connections that sit idle longer than the configured timeout are closed by a daemon thread.
+ * <p/>
+ * Callers must always call {@link HttpMethod#releaseConnection()} when they are done with a method,
+ * otherwise the connection never goes back to the pool.
+ */
+public class MapHttpClient {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public static final int MaxConnectionsPerHostDefault = 4;
+public static final int MaxTotalConnectionsDefault = 16;
+/** how long (ms) a pooled connection may sit unused before it is closed */
+public static final long IdleTimeoutDefault = 30 * 1000;
+/** how often (ms) the idle eviction thread wakes up */
+public static final long IdleCheckIntervalDefault = 5 * 1000;
+public static final int ConnectTimeoutDefault = 10 * 1000;
+public static final int SocketTimeoutDefault = 30 * 1000;
+/** how long (ms) a caller waits for a free pooled connection */
+public static final long PoolWaitTimeoutDefault = 10 * 1000;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private static HttpClient _client;
+private static MultiThreadedHttpConnectionManager _connectionManager;
+private static IdleConnectionTimeoutThread _idleThread;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// methods
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** the shared client, created with the default settings on first use */
+public static synchronized HttpClient getClient() {
+  if (_client == null) {
+    configure(MaxConnectionsPerHostDefault, MaxTotalConnectionsDefault, IdleTimeoutDefault);
+  }
+  return _client;
+}
+
+/**
+ * replaces the shared client with one using the given pool settings. connections held by the
+ * previous client are closed.
+ */
+public static synchronized void configure(int maxConnectionsPerHost, int maxTotalConnections, long idleTimeout) {
+  if (maxConnectionsPerHost < 1)
+    throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+
+  if (maxTotalConnections < maxConnectionsPerHost)
+    throw new IllegalArgumentException("maxTotalConnections can not be less than maxConnectionsPerHost");
+
+  if (idleTimeout < 0)
+    throw new IllegalArgumentException("idleTimeout can not be negative");
+
+  shutdown();
+
+  _connectionManager = new MultiThreadedHttpConnectionManager();
+
+  HttpConnectionManagerParams params = _connectionManager.getParams();
+  params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+  params.setMaxTotalConnections(maxTotalConnections);
+  params.setConnectionTimeout(ConnectTimeoutDefault);
+  params.setSoTimeout(SocketTimeoutDefault);
+  params.setStaleCheckingEnabled(true);
+  params.setTcpNoDelay(true);
+
+  _client = new HttpClient(_connectionManager);
+  _client.getParams().setConnectionManagerTimeout(PoolWaitTimeoutDefault);
+
+  _idleThread = new IdleConnectionTimeoutThread();
+  _idleThread.setName("MapHttpClient idle connection evictor");
+  _idleThread.setConnectionTimeout(idleTimeout);
+  _idleThread.setTimeoutInterval(IdleCheckIntervalDefault);
+  _idleThread.addConnectionManager(_connectionManager);
+  _idleThread.start();
+}
+
+/** closes all pooled connections and stops the idle eviction thread */
+public static synchronized void shutdown() {
+  if (_idleThread != null) {
+    _idleThread.shutdown();
+    _idleThread = null;
+  }
+
+  if (_connectionManager != null) {
+    _connectionManager.shutdown();
+    _connectionManager = null;
+  }
+
+  _client = null;
+}
+
+}//end class MapHttpClient
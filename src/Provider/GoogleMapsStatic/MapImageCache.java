@@ -0,0 +1,166 @@
+package Provider.GoogleMapsStatic;
+
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * MapImageCache
+ * <p/>
+ * In-memory LRU cache of downloaded maps, keyed by {@link MapRequest}. Each entry holds the raw bytes
+ * returned by the server and the decoded image, so returning to a view that was already seen needs
+ * neither a download nor an {@link javax.imageio.ImageIO#read} call. The cache is bounded by an
+ * estimate of the memory its entries use (raw bytes plus 4 bytes per decoded pixel) rather than by
+ * entry count, and evicts the least recently used entries first.
+ * <p/>
+ * Cached images are shared, callers must not draw into them.
+ */
+public class MapImageCache {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** 64MB is about 60 full size 512x512 maps */
+public static final long CapacityDefault = 64L * 1024 * 1024;
+public static final int BytesPerPixel = 4;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final long _capacity;
+/** access ordered, so iteration starts at the least recently used entry */
+private final LinkedHashMap<MapRequest, Entry> _map = new LinkedHashMap<MapRequest, Entry>(64, 0.75f, true);
+private long _size;
+
+private long _hits;
+private long _misses;
+private long _evictions;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapImageCache() {
+  this(CapacityDefault);
+}
+
+public MapImageCache(long capacity) {
+  if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+  _capacity = capacity;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// cache operations
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @return the cached entry, or null on a miss. counts as a hit or a miss. */
+public synchronized Entry get(MapRequest request) {
+  Entry e = _map.get(request);
+  if (e == null) _misses++;
+  else _hits++;
+  return e;
+}
+
+/**
+ * @return the cached entry, or null. unlike {@link #get} it isn't counted as a hit or miss, for
+ *         lookups that are not on behalf of a fetch (eg. drawing a preview).
+ */
+public synchronized Entry peek(MapRequest request) {
+  return _map.get(request);
+}
+
+/** @return true if the request is cached. does not count as a hit or miss, or touch the LRU order. */
+public synchronized boolean contains(MapRequest request) {
+  return _map.containsKey(request);
+}
+
+/**
+ * adds (or replaces) an entry and evicts least recently used entries until the cache fits its
+ * capacity again. an entry bigger than the whole cache is not stored.
+ */
+public synchronized Entry put(MapRequest request, byte[] data, BufferedImage image) {
+  Entry e = new Entry(data, image);
+  if (e.getWeight() > _capacity) return e;
+
+  Entry old = _map.put(request, e);
+  if (old != null) _size -= old.getWeight();
+  _size += e.getWeight();
+
+  Iterator<Entry> it = _map.values().iterator();
+  while (_size > _capacity && it.hasNext()) {
+    Entry lru = it.next();
+    it.remove();
+    _size -= lru.getWeight();
+    _evictions++;
+  }
+
+  return e;
+}
+
+public synchronized void clear() {
+  _map.clear();
+  _size = 0;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// statistics
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public synchronized long getHits() {
+  return _hits;
+}
+
+public synchronized long getMisses() {
+  return _misses;
+}
+
+public synchronized long getEvictions() {
+  return _evictions;
+}
+
+public synchronized int getEntryCount() {
+  return _map.size();
+}
+
+/** estimated bytes held by the cached entries */
+public synchronized long getSize() {
+  return _size;
+}
+
+public long getCapacity() {
+  return _capacity;
+}
+
+public synchronized String toString() {
+  long lookups = _hits + _misses;
+  return "MapImageCache[entries=" + _map.size() +
+         ", size=" + _size + "/" + _capacity +
+         ", hits=" + _hits +
+         ", misses=" + _misses +
+         ", evictions=" + _evictions +
+         ", hitRatio=" + (lookups == 0 ? 0 : Math.round(100.0 * _hits / lookups)) + "%]";
+}
+
+/** a cached map: the bytes that came off the wire and the image decoded from them */
+public static class Entry {
+  private final byte[] _data;
+  private final BufferedImage _image;
+  private final long _weight;
+
+  Entry(byte[] data, BufferedImage image) {
+    _data = data;
+    _image = image;
+    _weight = data.length + (image == null ? 0 : (long) image.getWidth() * image.getHeight() * BytesPerPixel);
+  }
+
+  public byte[] getData() {
+    return _data;
+  }
+
+  /** @return the decoded image, or null if the data is not an image (eg. an error page) */
+  public BufferedImage getImage() {
+    return _image;
+  }
+
+  public long getWeight() {
+    return _weight;
+  }
+}// class Entry
+
+}//end class MapImageCache
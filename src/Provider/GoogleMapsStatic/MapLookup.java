@@ -5,6 +5,8 @@ import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.methods.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * MapLookup
@@ -39,11 +41,18 @@ public static final int SizeDefault = SizeMax;
 public static final String MarkerSeparator = "|";
 public static final String MarkersKey = "markers";
 
+public static final String PathKey = "path";
+
+/** longest URI the static maps API takes */
+public static final int UriLengthMax = 2048;
+
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // data
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 public static final MapLookup _map = new MapLookup();
 public static String GmapLicense = "";
+/** when > 0, map centers are snapped to a grid this many pixels apart at the requested zoom */
+private static int _snapGridPixels = 0;
 
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // set the license key
@@ -53,6 +62,76 @@ public static void setLicenseKey(String lic) {
   GmapLicense = lic;
 }
 */
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// center snapping
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * turns snapping on (gridPixels > 0) or off (0). with snapping on, centers that land in the same
+ * Web Mercator grid cell at the requested zoom produce the same URI, so they share cache entries.
+ */
+public static void setSnapGridPixels(int gridPixels) {
+  if (gridPixels < 0) throw new IllegalArgumentException("gridPixels can not be negative");
+  _snapGridPixels = gridPixels;
+}
+
+public static int getSnapGridPixels() {
+  return _snapGridPixels;
+}
+
+/** @return {lat, lon} snapped to the grid, or unchanged when snapping is off */
+public static double[] snapCenter(double lat, double lon, int zoom) {
+  if (_snapGridPixels == 0) return new double[]{lat, lon};
+  return MapProjection.snap(lat, lon, zoom, _snapGridPixels);
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// panning
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** degrees moved by one pan step at the given zoom. credits to Husain Fazal for the formula */
+public static double panStep(int zoom) {
+  return 131.072 / Math.pow(2, zoom + 1);
+}
+
+/**
+ * moves a center one pan step. dirX is -1 for west and 1 for east, dirY is -1 for south and 1 for
+ * north.
+ * <p/>
+ * with snapping off this steps {@link #panStep} degrees, wrapping around past 85 lat and 180 lon. with
+ * snapping on it steps the nearest whole number of grid cells in pixel space instead, so every pan
+ * lands on the grid and panning back returns to exactly the same center.
+ *
+ * @return {lat, lon}
+ */
+public static double[] panCenter(double lat, double lon, int zoom, int dirX, int dirY) {
+  double toadd = panStep(zoom);
+
+  if (_snapGridPixels == 0) {
+    if (dirY != 0) {
+      lat += dirY * toadd;
+      if (lat > 85) lat -= 170;
+      else if (lat < -85) lat += 170;
+    }
+
+    if (dirX != 0) {
+      lon += dirX * toadd;
+      if (lon > 180) lon -= 360;
+      else if (lon < -180) lon += 360;
+    }
+
+    return new double[]{lat, lon};
+  }
+
+  double world = MapProjection.worldSize(zoom);
+  long cells = Math.max(1, Math.round(toadd / 360 * world / _snapGridPixels));
+  double step = cells * _snapGridPixels;
+
+  double x = MapProjection.lonToX(lon, zoom) + dirX * step;
+  double y = MapProjection.latToY(lat, zoom) - dirY * step;
+  y = Math.max(0, Math.min(world, y));
+
+  return MapProjection.snap(MapProjection.yToLat(y, zoom), MapProjection.xToLon(x, zoom), zoom, _snapGridPixels);
+}
+
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // methods
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
@@ -68,6 +147,11 @@ public static String getMap(double lat, double lon, int sizeW, int sizeH, int zo
   return _map.getURI(lat, lon, sizeW, sizeH, zoom);
 }
 
+/**
+ * a map fitted around the markers. with many markers the URI can be longer than
+ * {@link #UriLengthMax}, which is refused when it is fetched; give the view and use
+ * {@link #getMaps} or {@link MarkerSplitter#render} instead.
+ */
 public static String getMap(double lat, double lon, int sizeW, int sizeH, MapMarker... markers) {
   return _map.getURI(lat, lon, sizeW, sizeH, markers);
 }
@@ -76,6 +160,53 @@ public static String getMap(double lat, double lon, MapMarker... markers) {
   return getMap(lat, lon, SizeMax, SizeMax, markers);
 }
 
+/**
+ * a map of the given view with any number of markers, as the URIs of as few maps as the markers fit
+ * in (see {@link MarkerSplitter#split}): one URI if they all fit. the maps differ only in the
+ * markers, {@link MarkerSplitter#merge} puts them together once they are fetched, and
+ * {@link MarkerSplitter#render} does both.
+ */
+public static List<String> getMaps(double lat, double lon, int sizeW, int sizeH, int zoom,
+                                   MapMarker... markers) {
+  ArrayList<String> uris = new ArrayList<String>();
+  for (MapMarker[] group : MarkerSplitter.split(lat, lon, sizeW, sizeH, zoom, markers)) {
+    uris.add(_map.getURI(lat, lon, sizeW, sizeH, zoom, group));
+  }
+  return uris;
+}
+
+/**
+ * a map of the given view with any number of markers: they are clustered for the zoom into at most
+ * {@link MarkerClusterer#ClustersMaxDefault} markers, and those off the map are left out.
+ *
+ * @see MarkerClusterer
+ */
+public static String getClusteredMap(double lat, double lon, int sizeW, int sizeH, int zoom,
+                                     MapMarker... markers) {
+  MapRequest view = new MapRequest(lat, lon, sizeW, sizeH, zoom, false, false);
+  MapMarker[] clustered = MarkerClusterer.toMarkers(new MarkerClusterer().cluster(view, markers));
+  return _map.getURI(lat, lon, sizeW, sizeH, zoom, clustered);
+}
+
+/**
+ * a map of the given view with a path drawn on it, simplified to what the zoom can show. if that is
+ * still too long for a URI the path is simplified further, doubling the tolerance each time, until
+ * it fits.
+ *
+ * @see MapPath#simplify(int)
+ */
+public static String getMap(double lat, double lon, int sizeW, int sizeH, int zoom, MapPath path) {
+  MapPath simple = path.simplify(zoom);
+  String uri = _map.getURI(lat, lon, sizeW, sizeH, zoom, simple);
+  // the simplified path is much shorter than the original, so simplifying it again is cheap
+  for (double tolerance = 2 * MapPath.TolerancePixelsDefault;
+       uri.length() > UriLengthMax && simple.size() > 2; tolerance *= 2) {
+    simple = simple.simplify(zoom, tolerance);
+    uri = _map.getURI(lat, lon, sizeW, sizeH, zoom, simple);
+  }
+  return uri;
+}
+
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // param handling and uri generation
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
@@ -105,7 +236,33 @@ public String getURI(double lat, double lon, int sizeW, int sizeH, MapMarker...
   return sb.toString();
 }
 
+/**
+ * a map of the given view with the given markers, and none at the center unless it is one of them.
+ * too many markers make it longer than {@link #UriLengthMax}, see {@link #getMaps}.
+ */
+public String getURI(double lat, double lon, int sizeW, int sizeH, int zoom, MapMarker... markers) {
+  String uri = getExactURI(lat, lon, sizeW, sizeH, zoom, false);
+  if (markers.length == 0) return uri;
+  return _beforeKey(uri, MarkerUtils.toString(markers));
+}
+
+/** a map of the given view with the path drawn on it as it is, see {@link MapPath#simplify} */
+public String getURI(double lat, double lon, int sizeW, int sizeH, int zoom, MapPath path) {
+  String uri = getExactURI(lat, lon, sizeW, sizeH, zoom, false);
+  if (path.size() == 0) return uri;
+  return _beforeKey(uri, PathKey + "=" + path);
+}
+
 public String getURI(double lat, double lon, int sizeW, int sizeH, int zoom) {
+  double[] center = snapCenter(lat, lon, zoom);
+  return getExactURI(center[0], center[1], sizeW, sizeH, zoom, true);
+}
+
+/**
+ * like {@link #getURI(double, double, int, int, int)} but the center is never snapped, and the
+ * marker at the center can be left out (eg. for the tiles of a mosaic)
+ */
+public String getExactURI(double lat, double lon, int sizeW, int sizeH, int zoom, boolean centerMarker) {
   _validateParams(sizeW, sizeH, zoom);
 
   // generate the URI
@@ -128,9 +285,11 @@ public String getURI(double lat, double lon, int sizeW, int sizeH, int zoom) {
       append(SizeKey).append("=").append(sizeW).append(SizeSeparator).append(sizeH);
 
   // markers key
-  sb.
-      append("&").
-      append(MarkerUtils.toString(new MapMarker(lat, lon)));
+  if (centerMarker) {
+    sb.
+        append("&").
+        append(MarkerUtils.toString(new MapMarker(lat, lon)));
+  }
 
   // maps key
   sb.
@@ -140,6 +299,12 @@ public String getURI(double lat, double lon, int sizeW, int sizeH, int zoom) {
   return sb.toString();
 }
 
+/** inserts a param before the key, which the URIs end with */
+private static String _beforeKey(String uri, String param) {
+  int key = uri.lastIndexOf("&" + GmapLicenseKey + "=");
+  return uri.substring(0, key) + "&" + param + uri.substring(key);
+}
+
 private void _validateParams(int sizeW, int sizeH, int zoom) {
   if (zoom < ZoomMin || zoom > ZoomMax)
     throw new IllegalArgumentException("zoom value is out of range [" + ZoomMin + "-" + ZoomMax + "]");
@@ -154,13 +319,26 @@ private void _validateParams(int sizeW, int sizeH, int zoom) {
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // actually get the map from Google
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
-/** use httpclient to get the data */
+/**
+ * refuses a URI longer than UriLengthMax before it is sent, the server would only answer with an
+ * error. called by everything that fetches maps.
+ *
+ * @throws IOException if the URI is too long
+ */
+public static void checkURI(String uri) throws IOException {
+  if (uri.length() > UriLengthMax)
+    throw new IOException("the URI is " + uri.length() + " chars, the most the static maps API takes is " +
+                          UriLengthMax + " (split the markers with getMaps or MarkerSplitter)");
+}
+
+/** use the shared, pooled httpclient to get the data. URIs longer than UriLengthMax are refused */
 public static ByteBuffer getDataFromURI(String uri) throws IOException {
 
+  checkURI(uri);
   GetMethod get = new GetMethod(uri);
 
   try {
-    new HttpClient().executeMethod(get);
+    MapHttpClient.getClient().executeMethod(get);
     return new ByteBuffer(get.getResponseBodyAsStream());
   }
   finally {
@@ -21,7 +21,7 @@ static final long serialVersionUID = 5805831996822361347L;
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // enum for marker colors
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
-enum MarkerColor {
+public enum MarkerColor {
   red, green, blue
 }// enum MarkerColor
 
@@ -55,6 +55,31 @@ public MapMarker(double lat, double lon) {
   _lon = lon;
 }
 
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public double getLat() {
+  return _lat;
+}
+
+public double getLon() {
+  return _lon;
+}
+
+/** @return the color, null for the default one */
+public MarkerColor getColor() {
+  return _color;
+}
+
+public char getAlpha() {
+  return _alpha;
+}
+
+/** true if the marker has a color and an alpha character, otherwise it is a plain marker */
+public boolean hasLabel() {
+  return _color != null && _alpha != '1';
+}
+
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 // generate Google Maps uri
 //XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
@@ -63,7 +88,7 @@ public String toString() {
 
   sb.append(_lat).append(",").append(_lon);
 
-  if (_color != null && _alpha != '1') {
+  if (hasLabel()) {
     sb.
         append(",").
         append(_color.toString()).
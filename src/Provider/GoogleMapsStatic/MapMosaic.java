@@ -0,0 +1,292 @@
+package Provider.GoogleMapsStatic;
+
+import org.apache.commons.httpclient.methods.*;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * MapMosaic
+ * <p/>
+ * Builds maps bigger than the {@link MapLookup#SizeMax} pixels a single static map request allows.
+ * The requested viewport is split into a grid of equally sized tiles of at most SizeMax pixels; each
+ * tile is requested with its own center, worked out in Web Mercator pixels so neighbouring tiles
+ * line up exactly at the given zoom. Tiles are fetched in parallel through a {@link MapSource}
+ * (so tiles that are already cached are reused) on a bounded number of threads, and then drawn into
+ * one image. Tiles are requested without the center marker and are never snapped. A {@link Control}
+ * passed to render can stop a mosaic that is no longer wanted: tiles not started yet are skipped and
+ * the GETs of the running ones are handed to it, so it can abort them.
+ */
+public class MapMosaic {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public static final int MosaicSizeMax = 8192;
+/** same as the per host connection limit of the shared client, more would just queue there */
+public static final int ConcurrencyDefault = MapHttpClient.MaxConnectionsPerHostDefault;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final MapSource _source;
+private final int _concurrency;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapMosaic(MapSource source) {
+  this(source, ConcurrencyDefault);
+}
+
+public MapMosaic(MapSource source, int concurrency) {
+  if (concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+  _source = source;
+  _concurrency = concurrency;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// methods
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** the tile requests that make up the given viewport, row by row */
+public static List<Tile> layout(double lat, double lon, int width, int height, int zoom) {
+  if (zoom < MapLookup.ZoomMin || zoom > MapLookup.ZoomMax)
+    throw new IllegalArgumentException("zoom value is out of range [" + MapLookup.ZoomMin + "-" + MapLookup.ZoomMax + "]");
+
+  if (width < MapLookup.SizeMin || width > MosaicSizeMax)
+    throw new IllegalArgumentException("width is out of range [" + MapLookup.SizeMin + "-" + MosaicSizeMax + "]");
+
+  if (height < MapLookup.SizeMin || height > MosaicSizeMax)
+    throw new IllegalArgumentException("height is out of range [" + MapLookup.SizeMin + "-" + MosaicSizeMax + "]");
+
+  int cols = (width + MapLookup.SizeMax - 1) / MapLookup.SizeMax;
+  int rows = (height + MapLookup.SizeMax - 1) / MapLookup.SizeMax;
+  int tileW = (width + cols - 1) / cols;
+  int tileH = (height + rows - 1) / rows;
+
+  // world pixel of the mosaic's top left corner
+  double left = MapProjection.lonToX(lon, zoom) - width / 2.0;
+  double top = MapProjection.latToY(lat, zoom) - height / 2.0;
+
+  ArrayList<Tile> tiles = new ArrayList<Tile>(rows * cols);
+  for (int row = 0; row < rows; row++) {
+    for (int col = 0; col < cols; col++) {
+      int x = col * tileW;
+      int y = row * tileH;
+      double tileLat = MapProjection.yToLat(top + y + tileH / 2.0, zoom);
+      double tileLon = MapProjection.wrapLon(MapProjection.xToLon(left + x + tileW / 2.0, zoom));
+      tiles.add(new Tile(row, col, x, y, new MapRequest(tileLat, tileLon, tileW, tileH, zoom, false, false)));
+    }
+  }
+  return tiles;
+}
+
+/**
+ * fetches all the tiles of the viewport and stitches them into one image. tiles that can't be
+ * fetched are left blank and reported in the result.
+ */
+public Result render(double lat, double lon, int width, int height, int zoom) throws InterruptedException {
+  return render(lat, lon, width, height, zoom, null);
+}
+
+/**
+ * same as {@link #render(double, double, int, int, int)}, but stops as soon as the control says so
+ *
+ * @param control may be null
+ * @return null if the control cancelled the mosaic, nothing is stitched then
+ */
+public Result render(double lat, double lon, int width, int height, int zoom, final Control control)
+    throws InterruptedException {
+  long start = System.currentTimeMillis();
+  final List<Tile> tiles = layout(lat, lon, width, height, zoom);
+
+  ExecutorService executor = Executors.newFixedThreadPool(Math.min(_concurrency, tiles.size()));
+  try {
+    ArrayList<Callable<Tile>> jobs = new ArrayList<Callable<Tile>>(tiles.size());
+    for (final Tile tile : tiles) {
+      jobs.add(new Callable<Tile>() {
+        public Tile call() {
+          tile._fetch(_source, control);
+          return tile;
+        }
+      });
+    }
+    executor.invokeAll(jobs);
+  }
+  finally {
+    executor.shutdownNow();
+  }
+  if (control != null && control.isCancelled()) return null;
+  long fetched = System.currentTimeMillis();
+
+  BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+  Graphics2D g = img.createGraphics();
+  try {
+    g.setColor(Color.lightGray);
+    g.fillRect(0, 0, width, height);
+    for (Tile tile : tiles) {
+      if (tile._image != null) g.drawImage(tile._image, tile._x, tile._y, null);
+    }
+  }
+  finally {
+    g.dispose();
+  }
+  long stitched = System.currentTimeMillis();
+
+  return new Result(img, tiles, fetched - start, stitched - fetched);
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// tiles and results
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * lets the caller stop a render it no longer wants. the methods are called from the tile threads.
+ */
+public interface Control {
+  /** @return true once the mosaic isn't wanted any more */
+  boolean isCancelled();
+
+  /** a tile is about to execute this GET; aborting it stops the download */
+  void started(GetMethod get);
+
+  /** the GET has finished, or was aborted */
+  void finished(GetMethod get);
+}// interface Control
+
+/** one tile of a mosaic: where it goes, what is requested for it and how long it took */
+public static class Tile {
+  private final int _row, _col, _x, _y;
+  private final MapRequest _request;
+
+  private BufferedImage _image;
+  private boolean _cached;
+  private long _millis;
+  private String _error;
+
+  Tile(int row, int col, int x, int y, MapRequest request) {
+    _row = row;
+    _col = col;
+    _x = x;
+    _y = y;
+    _request = request;
+  }
+
+  private void _fetch(MapSource source, Control control) {
+    if (control != null && control.isCancelled()) {
+      _error = "cancelled";
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      MapImageCache.Entry e = source.getCached(_request);
+      _cached = e != null;
+      if (e == null && control == null) e = source.get(_request);
+      else if (e == null) e = _download(source, control);
+
+      if (e == null) _error = "not an image";
+      else _image = e.getImage();
+    }
+    catch (IOException ex) {
+      _error = ex.toString();
+    }
+    _millis = System.currentTimeMillis() - start;
+  }
+
+  /** checks the control after handing it the GET, so a cancel in between still stops the tile */
+  private MapImageCache.Entry _download(MapSource source, Control control) throws IOException {
+    GetMethod get = new GetMethod(_request.getURI());
+    control.started(get);
+    try {
+      if (control.isCancelled()) throw new IOException("cancelled");
+      return source.download(_request, get);
+    }
+    finally {
+      control.finished(get);
+    }
+  }
+
+  public int getRow() {
+    return _row;
+  }
+
+  public int getCol() {
+    return _col;
+  }
+
+  public MapRequest getRequest() {
+    return _request;
+  }
+
+  /** true if the tile came from the memory or disk cache */
+  public boolean isCached() {
+    return _cached;
+  }
+
+  public long getMillis() {
+    return _millis;
+  }
+
+  /** @return why the tile couldn't be fetched, or null if it was */
+  public String getError() {
+    return _error;
+  }
+
+  public String toString() {
+    return "tile[" + _row + "," + _col + "] " + _request + " " + _millis + "ms " +
+           (_error != null ? "FAILED " + _error : _cached ? "cached" : "downloaded");
+  }
+}// class Tile
+
+/** the stitched image, plus timings for each tile and for the stitch */
+public static class Result {
+  private final BufferedImage _image;
+  private final List<Tile> _tiles;
+  private final long _fetchMillis;
+  private final long _stitchMillis;
+
+  Result(BufferedImage image, List<Tile> tiles, long fetchMillis, long stitchMillis) {
+    _image = image;
+    _tiles = Collections.unmodifiableList(tiles);
+    _fetchMillis = fetchMillis;
+    _stitchMillis = stitchMillis;
+  }
+
+  public BufferedImage getImage() {
+    return _image;
+  }
+
+  public List<Tile> getTiles() {
+    return _tiles;
+  }
+
+  /** wall clock time until the last tile arrived */
+  public long getFetchMillis() {
+    return _fetchMillis;
+  }
+
+  public long getStitchMillis() {
+    return _stitchMillis;
+  }
+
+  /** one line per tile, then the totals */
+  public String getReport() {
+    StringBuilder sb = new StringBuilder();
+    int cached = 0, failed = 0;
+    for (Tile t : _tiles) {
+      sb.append(t).append("\n");
+      if (t.getError() != null) failed++;
+      else if (t.isCached()) cached++;
+    }
+    sb.append("mosaic ").append(_image.getWidth()).append(MapLookup.SizeSeparator).append(_image.getHeight()).
+        append(": ").append(_tiles.size()).append(" tiles (").append(cached).append(" cached, ").
+        append(failed).append(" failed), fetch=").append(_fetchMillis).append("ms, stitch=").
+        append(_stitchMillis).append("ms");
+    return sb.toString();
+  }
+}// class Result
+
+}//end class MapMosaic
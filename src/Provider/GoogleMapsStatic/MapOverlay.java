@@ -0,0 +1,179 @@
+package Provider.GoogleMapsStatic;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MapOverlay
+ * <p/>
+ * Markers drawn on a map image on the client instead of by the static maps server. A marker in the
+ * URI makes every marker change a new URI, so a new download and a cache miss for a map that is
+ * otherwise the same; with an overlay the maps are fetched without markers (see
+ * {@link MapRequest#hasCenterMarker}) and {@link #paint} draws the markers over them, placed by the
+ * same Web Mercator math the server uses ({@link MapProjection}). Showing, hiding or moving markers
+ * then only costs a repaint.
+ * <p/>
+ * The markers look like the server's: a pin of the marker's color with its point on the location
+ * and the alpha character, if any, in the head. Overlays are never changed once made, a different
+ * set of markers is a new overlay, so one can be painted while the next is being made.
+ */
+public class MapOverlay {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** size of a marker in pixels, the same as the server's markers */
+public static final int MarkerWidth = 20;
+public static final int MarkerHeight = 34;
+
+/** an overlay without markers */
+public static final MapOverlay Empty = new MapOverlay();
+
+/** the pin, with its point at 0,0 */
+private static final Shape Pin = _pin();
+private static final Font LabelFont = new Font(Font.SANS_SERIF, Font.BOLD, 11);
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final List<MapMarker> _markers;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @param markers drawn in order, so later ones cover earlier ones */
+public MapOverlay(MapMarker... markers) {
+  this(Arrays.asList(markers));
+}
+
+public MapOverlay(List<MapMarker> markers) {
+  _markers = Collections.unmodifiableList(new ArrayList<MapMarker>(markers));
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public List<MapMarker> getMarkers() {
+  return _markers;
+}
+
+/** @return this overlay with the given markers drawn over its own */
+public MapOverlay plus(MapMarker... markers) {
+  ArrayList<MapMarker> all = new ArrayList<MapMarker>(_markers);
+  all.addAll(Arrays.asList(markers));
+  return new MapOverlay(all);
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// drawing
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * where a location falls on the map of a view, in pixels from its top left corner. across the
+ * antimeridian the copy of the world nearest the view's center is used, so a marker just past 180
+ * is drawn at the edge of a map centered just before it.
+ */
+public static Point2D toPixel(MapRequest view, double lat, double lon) {
+  int zoom = view.getZoom();
+  double world = MapProjection.worldSize(zoom);
+  double dx = MapProjection.lonToX(lon, zoom) - MapProjection.lonToX(view.getLon(), zoom);
+  if (dx > world / 2) dx -= world;
+  else if (dx < -world / 2) dx += world;
+  double dy = MapProjection.latToY(lat, zoom) - MapProjection.latToY(view.getLat(), zoom);
+  return new Point2D.Double(view.getSizeW() / 2.0 + dx, view.getSizeH() / 2.0 + dy);
+}
+
+/**
+ * draws the markers on a map of the given view. g draws in the view's pixels, with 0,0 its top left
+ * corner; markers that don't reach into the map are skipped.
+ */
+public void paint(Graphics2D g, MapRequest view) {
+  if (_markers.isEmpty()) return;
+
+  Graphics2D g2 = (Graphics2D) g.create();
+  try {
+    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g2.setFont(LabelFont);
+    FontMetrics fm = g2.getFontMetrics();
+    AffineTransform base = g2.getTransform();
+
+    for (MapMarker m : _markers) {
+      Point2D p = toPixel(view, m.getLat(), m.getLon());
+      if (p.getX() < -MarkerWidth / 2.0 || p.getX() > view.getSizeW() + MarkerWidth / 2.0 ||
+          p.getY() < 0 || p.getY() > view.getSizeH() + MarkerHeight) {
+        continue;
+      }
+
+      g2.translate(Math.round(p.getX()), Math.round(p.getY()));
+      Color fill = _color(m.getColor());
+      g2.setColor(fill);
+      g2.fill(Pin);
+      g2.setColor(fill.darker().darker());
+      g2.draw(Pin);
+
+      if (m.hasLabel()) {
+        String label = String.valueOf(Character.toUpperCase(m.getAlpha()));
+        g2.setColor(Color.black);
+        g2.drawString(label, -fm.stringWidth(label) / 2f,
+                      -MarkerHeight + MarkerWidth / 2f + (fm.getAscent() - fm.getDescent()) / 2f);
+      }
+      g2.setTransform(base);
+    }
+  }
+  finally {
+    g2.dispose();
+  }
+}
+
+/** @return a copy of the map image of the view with the markers drawn on it, the image is left alone */
+public BufferedImage paint(BufferedImage map, MapRequest view) {
+  BufferedImage img = new BufferedImage(map.getWidth(), map.getHeight(), BufferedImage.TYPE_INT_RGB);
+  Graphics2D g = img.createGraphics();
+  try {
+    g.drawImage(map, 0, 0, null);
+    paint(g, view);
+  }
+  finally {
+    g.dispose();
+  }
+  return img;
+}
+
+public String toString() {
+  return "MapOverlay[markers=" + _markers.size() + "]";
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** a round head on a tapering point, MarkerWidth wide and MarkerHeight tall */
+private static Shape _pin() {
+  double r = MarkerWidth / 2.0 - 1;
+  double cy = -MarkerHeight + MarkerWidth / 2.0;
+  Path2D.Double tail = new Path2D.Double();
+  tail.moveTo(-r * 0.8, cy + r * 0.6);
+  tail.lineTo(0, 0);
+  tail.lineTo(r * 0.8, cy + r * 0.6);
+  tail.closePath();
+
+  Area pin = new Area(new Ellipse2D.Double(-r, cy - r, 2 * r, 2 * r));
+  pin.add(new Area(tail));
+  return pin;
+}
+
+/** the server's colors, red when there is none */
+private static Color _color(MapMarker.MarkerColor color) {
+  if (color == null) return new Color(0xfc6355);
+  switch (color) {
+    case green: return new Color(0x00e13c);
+    case blue: return new Color(0x5781fc);
+    default: return new Color(0xfc6355);
+  }
+}
+
+}//end class MapOverlay
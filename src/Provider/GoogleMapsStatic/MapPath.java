@@ -0,0 +1,320 @@
+package Provider.GoogleMapsStatic;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * MapPath
+ * <p/>
+ * A route drawn on a static map, eg. a GPX track or saved waypoints in order. Sending every point
+ * of a track would blow the URI length limit long before it shows anything, so {@link #simplify}
+ * drops the points a map at the given zoom can't show: it is Douglas-Peucker on the Web Mercator
+ * pixels of the zoom, with a tolerance in pixels, after a pass that drops the points closer than
+ * the tolerance to the point before them (dense GPS fixes mostly go there, which keeps the
+ * Douglas-Peucker part short). {@link #toString} is the path value for the URI, with the points in
+ * the encoded polyline format of the maps API: about 4 to 6 chars a point instead of about 20.
+ * <p/>
+ * Points are added one at a time with {@link #add}, a path isn't thread safe while it is filled.
+ */
+public class MapPath {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** points that move a line by less than this many pixels are dropped by default */
+public static final double TolerancePixelsDefault = 1;
+/** rgba */
+public static final int ColorDefault = 0x0000ffa0;
+public static final int WeightDefault = 4;
+/** encoded polylines keep coordinates to 5 decimal places */
+public static final double EncodedScale = 1e5;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final int _color;
+private final int _weight;
+private double[] _lats = new double[16];
+private double[] _lons = new double[16];
+private int _size;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapPath() {
+  this(ColorDefault, WeightDefault);
+}
+
+/**
+ * @param color  rgba, eg. 0xff000080 for half transparent red
+ * @param weight width of the line in pixels
+ */
+public MapPath(int color, int weight) {
+  if (weight < 1) throw new IllegalArgumentException("weight must be at least 1");
+  _color = color;
+  _weight = weight;
+}
+
+/** a path through the first n of the given points, in order */
+public MapPath(double[] lats, double[] lons, int n) {
+  this();
+  _lats = Arrays.copyOf(lats, Math.max(n, 16));
+  _lons = Arrays.copyOf(lons, Math.max(n, 16));
+  _size = n;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** adds a point at the end of the path */
+public void add(double lat, double lon) {
+  if (_size == _lats.length) {
+    _lats = Arrays.copyOf(_lats, 2 * _size);
+    _lons = Arrays.copyOf(_lons, 2 * _size);
+  }
+  _lats[_size] = lat;
+  _lons[_size] = lon;
+  _size++;
+}
+
+public int size() {
+  return _size;
+}
+
+public double getLat(int i) {
+  return _lats[i];
+}
+
+public double getLon(int i) {
+  return _lons[i];
+}
+
+public int getColor() {
+  return _color;
+}
+
+public int getWeight() {
+  return _weight;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// simplification
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @return the path as a map at the given zoom can show it, see {@link #simplify(int, double)} */
+public MapPath simplify(int zoom) {
+  return simplify(zoom, TolerancePixelsDefault);
+}
+
+/**
+ * the path with only the points that move it by at least tolerancePixels at the given zoom. the
+ * first and last points are always kept, and no point of this path is further than twice
+ * tolerancePixels from the simplified one (once for each pass).
+ *
+ * @return a new path with the same style
+ */
+public MapPath simplify(int zoom, double tolerancePixels) {
+  if (zoom < MapLookup.ZoomMin || zoom > MapLookup.ZoomMax)
+    throw new IllegalArgumentException("zoom value is out of range [" + MapLookup.ZoomMin + "-" + MapLookup.ZoomMax + "]");
+
+  MapPath simple = new MapPath(_color, _weight);
+  if (_size <= 2) {
+    for (int i = 0; i < _size; i++) simple.add(_lats[i], _lons[i]);
+    return simple;
+  }
+
+  double world = MapProjection.worldSize(zoom);
+  double tol2 = tolerancePixels * tolerancePixels;
+
+  // pixels of the points that are at least the tolerance from the last one taken. x goes on past
+  // the edge of the world when the path crosses the antimeridian, so that segment stays short
+  int[] ids = new int[_size];
+  double[] xs = new double[_size];
+  double[] ys = new double[_size];
+  int m = 0;
+  double shift = 0;
+  double lastX = 0;
+  for (int i = 0; i < _size; i++) {
+    double x = (_lons[i] + 180) / 360 * world + shift;
+    if (i > 0) {
+      if (x - lastX > world / 2) { x -= world; shift -= world; }
+      else if (lastX - x > world / 2) { x += world; shift += world; }
+    }
+    lastX = x;
+    double y = MapProjection.latToY(_lats[i], zoom);
+    if (m > 0 && i < _size - 1) {
+      double dx = x - xs[m - 1], dy = y - ys[m - 1];
+      if (dx * dx + dy * dy < tol2) continue;
+    }
+    ids[m] = i;
+    xs[m] = x;
+    ys[m] = y;
+    m++;
+  }
+
+  // Douglas-Peucker over what is left, with a stack of spans instead of recursion, which a long
+  // track could run out of
+  boolean[] keep = new boolean[m];
+  keep[0] = keep[m - 1] = true;
+  int[] stack = new int[64];
+  int top = 0;
+  stack[top++] = 0;
+  stack[top++] = m - 1;
+  while (top > 0) {
+    int last = stack[--top];
+    int first = stack[--top];
+    int far = _farthest(xs, ys, first, last, tol2);
+    if (far < 0) continue;
+
+    keep[far] = true;
+    if (top + 4 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+    stack[top++] = first;
+    stack[top++] = far;
+    stack[top++] = far;
+    stack[top++] = last;
+  }
+
+  for (int j = 0; j < m; j++) {
+    if (keep[j]) simple.add(_lats[ids[j]], _lons[ids[j]]);
+  }
+  return simple;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// encoding
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * the points in the encoded polyline format: for each point the change in latitude and then in
+ * longitude from the point before, in 1e-5 degrees, as 5 bit chunks from the lowest, each char
+ * being 63 plus the chunk plus 0x20 if another chunk follows.
+ */
+public String encode() {
+  StringBuilder sb = new StringBuilder(_size * 6);
+  long lastLat = 0, lastLon = 0;
+  for (int i = 0; i < _size; i++) {
+    long lat = Math.round(_lats[i] * EncodedScale);
+    long lon = Math.round(_lons[i] * EncodedScale);
+    _encode(sb, lat - lastLat);
+    _encode(sb, lon - lastLon);
+    lastLat = lat;
+    lastLon = lon;
+  }
+  return sb.toString();
+}
+
+/** the value of the path key: its style and its points as an escaped encoded polyline */
+public String toString() {
+  StringBuilder sb = new StringBuilder();
+  sb.append("color:0x").append(String.format("%08x", _color));
+  sb.append(MapLookup.MarkerSeparator).append("weight:").append(_weight);
+  sb.append(MapLookup.MarkerSeparator).append("enc:");
+  try {
+    // the polyline chars include ones that aren't allowed in a URI, eg. | \ ^ and `
+    sb.append(URLEncoder.encode(encode(), "UTF-8"));
+  }
+  catch (UnsupportedEncodingException e) {
+    throw new IllegalStateException(e);
+  }
+  return sb.toString();
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// self test method
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * simplifies a recorded looking track (a fix every 5m or so, with GPS noise, wandering from
+ * Washington) for maps at several zooms, and prints the time, the points kept and the size of the
+ * URI, next to the URI with every point sent as plain coordinates.
+ * <p/>
+ * usage: MapPath [points]
+ */
+public static void main(String[] args) {
+  int points = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+  Random random = new Random(42);
+  MapPath track = new MapPath();
+  double lat = 38.9311, lon = -77.3489, heading = 0;
+  for (int i = 0; i < points; i++) {
+    heading += random.nextGaussian() * 0.05;
+    lat += Math.cos(heading) * 4.5e-5;
+    lon += Math.sin(heading) * 4.5e-5 / Math.cos(Math.toRadians(lat));
+    track.add(lat + random.nextGaussian() * 2e-5, lon + random.nextGaussian() * 2e-5);
+  }
+
+  // what sending every point would cost
+  StringBuilder raw = new StringBuilder();
+  for (int i = 0; i < track.size(); i++) {
+    raw.append(MapLookup.MarkerSeparator).append(track.getLat(i)).append(",").append(track.getLon(i));
+  }
+  System.out.println(points + " points, " + raw.length() + " chars as plain coordinates, " +
+                     track.encode().length() + " encoded");
+
+  // warm up, so the first timings aren't the JIT's
+  for (int i = 0; i < 3; i++) track.simplify(10);
+
+  // simplified for the zoom, then as getMap makes it fit in a URI
+  int[] zooms = {4, 8, 10, 12, 14, 16};
+  System.out.println("  zoom      kept        ms  URI chars   fitted ms  URI chars");
+  for (int zoom : zooms) {
+    long start = System.nanoTime();
+    MapPath simple = track.simplify(zoom);
+    long nanos = System.nanoTime() - start;
+    int uri = MapLookup._map.getURI(lat, lon, MapLookup.SizeMax, MapLookup.SizeMax, zoom, simple).length();
+    start = System.nanoTime();
+    int fitted = MapLookup.getMap(lat, lon, MapLookup.SizeMax, MapLookup.SizeMax, zoom, track).length();
+    long fitNanos = System.nanoTime() - start;
+    System.out.println(String.format("%6d %9d %9.1f %10d %11.1f %10d", zoom, simple.size(), nanos / 1e6, uri,
+                                     fitNanos / 1e6, fitted));
+  }
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * @return the point strictly between first and last furthest from the segment between them, or -1
+ *         if none is further than the tolerance
+ */
+private static int _farthest(double[] xs, double[] ys, int first, int last, double tol2) {
+  double ax = xs[first], ay = ys[first];
+  double dx = xs[last] - ax, dy = ys[last] - ay;
+  double len2 = dx * dx + dy * dy;
+
+  int far = -1;
+  double farD2 = tol2;
+  for (int j = first + 1; j < last; j++) {
+    double px = xs[j] - ax, py = ys[j] - ay;
+    double d2;
+    if (len2 == 0) {
+      d2 = px * px + py * py;
+    }
+    else {
+      // distance to the segment, not the line, so a track doubling back isn't cut short
+      double t = (px * dx + py * dy) / len2;
+      if (t <= 0) d2 = px * px + py * py;
+      else if (t >= 1) d2 = (xs[j] - xs[last]) * (xs[j] - xs[last]) + (ys[j] - ys[last]) * (ys[j] - ys[last]);
+      else {
+        double cross = px * dy - py * dx;
+        d2 = cross * cross / len2;
+      }
+    }
+    if (d2 > farD2) {
+      farD2 = d2;
+      far = j;
+    }
+  }
+  return far;
+}
+
+/** appends one signed value as polyline chars */
+private static void _encode(StringBuilder sb, long v) {
+  v = v < 0 ? ~(v << 1) : v << 1;
+  while (v >= 0x20) {
+    sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+    v >>= 5;
+  }
+  sb.append((char) (v + 63));
+}
+
+}//end class MapPath
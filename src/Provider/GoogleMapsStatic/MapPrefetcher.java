@@ -0,0 +1,161 @@
+package Provider.GoogleMapsStatic;
+
+import org.apache.commons.httpclient.methods.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * MapPrefetcher
+ * <p/>
+ * Once a map is on screen the next action is very likely another pan in the same direction, a pan to
+ * one of the other sides, or a zoom in or out by one. The prefetcher downloads those views in the
+ * background through a {@link MapSource}, which leaves them in the caches so they show instantly when
+ * asked for.
+ * <p/>
+ * It runs one low priority thread, so at most one of the pooled connections is ever busy with
+ * prefetching and the foreground fetch is never starved. Calling {@link #prefetch} or {@link #cancel}
+ * drops everything still queued for the previous view and aborts the download in progress.
+ */
+public class MapPrefetcher {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final MapSource _source;
+private final ThreadPoolExecutor _executor;
+private final AtomicLong _generation = new AtomicLong();
+private volatile GetMethod _inFlight;
+
+private final AtomicLong _downloaded = new AtomicLong();
+private final AtomicLong _alreadyCached = new AtomicLong();
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapPrefetcher(MapSource source) {
+  _source = source;
+  _executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                                     new ThreadFactory() {
+                                       public Thread newThread(Runnable r) {
+                                         Thread t = new Thread(r, "MapPrefetcher");
+                                         t.setDaemon(true);
+                                         t.setPriority(Thread.MIN_PRIORITY);
+                                         return t;
+                                       }
+                                     });
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// methods
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * replaces any pending prefetches with the likely next views around the visible one.
+ *
+ * @param dirX direction of the pan that led to the visible view (-1, 0 or 1), see {@link MapLookup#panCenter}
+ * @param dirY direction of the pan that led to the visible view (-1, 0 or 1)
+ */
+public void prefetch(MapRequest visible, int dirX, int dirY) {
+  long gen = _restart();
+  for (MapRequest r : predict(visible, dirX, dirY)) {
+    _executor.execute(new Fetch(r, gen));
+  }
+}
+
+/** drops pending prefetches and aborts the one in progress, eg. when the user moves elsewhere */
+public void cancel() {
+  _restart();
+}
+
+public void shutdown() {
+  cancel();
+  _executor.shutdownNow();
+}
+
+/**
+ * the views most likely to be asked for next, most likely first: the pan continuing in the same
+ * direction, the four pan neighbours, then zoom in and zoom out by one.
+ */
+public static List<MapRequest> predict(MapRequest visible, int dirX, int dirY) {
+  LinkedHashSet<MapRequest> next = new LinkedHashSet<MapRequest>();
+
+  if (dirX != 0 || dirY != 0) next.add(_pan(visible, dirX, dirY));
+  next.add(_pan(visible, 1, 0));
+  next.add(_pan(visible, -1, 0));
+  next.add(_pan(visible, 0, 1));
+  next.add(_pan(visible, 0, -1));
+
+  int zoom = visible.getZoom();
+  if (zoom < MapLookup.ZoomMax) next.add(_zoom(visible, zoom + 1));
+  if (zoom > MapLookup.ZoomMin) next.add(_zoom(visible, zoom - 1));
+
+  next.remove(visible);
+  return new ArrayList<MapRequest>(next);
+}
+
+public String toString() {
+  return "MapPrefetcher[downloaded=" + _downloaded +
+         ", alreadyCached=" + _alreadyCached +
+         ", queued=" + _executor.getQueue().size() + "]";
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private long _restart() {
+  long gen = _generation.incrementAndGet();
+  _executor.getQueue().clear();
+
+  GetMethod get = _inFlight;
+  if (get != null) get.abort();
+
+  return gen;
+}
+
+private static MapRequest _pan(MapRequest r, int dirX, int dirY) {
+  double[] center = MapLookup.panCenter(r.getLat(), r.getLon(), r.getZoom(), dirX, dirY);
+  return new MapRequest(center[0], center[1], r.getSizeW(), r.getSizeH(), r.getZoom(), r.hasCenterMarker(), true);
+}
+
+private static MapRequest _zoom(MapRequest r, int zoom) {
+  return new MapRequest(r.getLat(), r.getLon(), r.getSizeW(), r.getSizeH(), zoom, r.hasCenterMarker(), true);
+}
+
+private class Fetch implements Runnable {
+  private final MapRequest _request;
+  private final long _gen;
+
+  Fetch(MapRequest request, long gen) {
+    _request = request;
+    _gen = gen;
+  }
+
+  public void run() {
+    if (_generation.get() != _gen) return;
+
+    try {
+      if (_source.isInMemory(_request) || _source.getCached(_request) != null) {
+        _alreadyCached.incrementAndGet();
+        return;
+      }
+
+      GetMethod get = new GetMethod(_request.getURI());
+      _inFlight = get;
+      try {
+        // checked after publishing the method, so a cancel either sees it or is seen here
+        if (_generation.get() != _gen) return;
+        if (_source.download(_request, get) != null) _downloaded.incrementAndGet();
+      }
+      finally {
+        _inFlight = null;
+      }
+    }
+    catch (IOException e) {
+      // aborted, or the network is down. the view is simply fetched normally if it is asked for.
+    }
+  }
+}// class Fetch
+
+}//end class MapPrefetcher
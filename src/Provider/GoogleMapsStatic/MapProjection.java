@@ -0,0 +1,150 @@
+package Provider.GoogleMapsStatic;
+
+/**
+ * MapProjection
+ * <p/>
+ * Web Mercator math used by the static maps: at zoom z the whole world is a square of
+ * <code>256 * 2^z</code> pixels, x grows east from longitude -180 and y grows south from latitude
+ * {@link #LatMax}. Converting a center to pixels and back lets callers work in screen space, eg. to
+ * snap centers to a pixel grid so nearby views share one cache entry.
+ */
+public class MapProjection {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public static final int TileSize = 256;
+/** latitudes beyond this are off the edge of the square Mercator world */
+public static final double LatMax = 85.0511287798;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// projection
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** width and height of the world in pixels at the given zoom */
+public static double worldSize(int zoom) {
+  return TileSize * Math.pow(2, zoom);
+}
+
+public static double lonToX(double lon, int zoom) {
+  return (lon + 180) / 360 * worldSize(zoom);
+}
+
+public static double latToY(double lat, int zoom) {
+  double sin = Math.sin(Math.toRadians(clampLat(lat)));
+  return (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * worldSize(zoom);
+}
+
+public static double xToLon(double x, int zoom) {
+  return x / worldSize(zoom) * 360 - 180;
+}
+
+public static double yToLat(double y, int zoom) {
+  double n = Math.PI * (1 - 2 * y / worldSize(zoom));
+  return Math.toDegrees(Math.atan(Math.sinh(n)));
+}
+
+public static double clampLat(double lat) {
+  return Math.max(-LatMax, Math.min(LatMax, lat));
+}
+
+/** wraps a longitude into [-180, 180) */
+public static double wrapLon(double lon) {
+  double w = (lon + 180) % 360;
+  if (w < 0) w += 360;
+  return w - 180;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// quantization
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * moves a center to the nearest point of a grid spaced gridPixels apart at the given zoom. every
+ * center inside one grid cell snaps to exactly the same lat/lon, so the requests for them produce
+ * the same URI.
+ *
+ * @return {lat, lon}
+ */
+public static double[] snap(double lat, double lon, int zoom, int gridPixels) {
+  if (gridPixels < 1) throw new IllegalArgumentException("gridPixels must be at least 1");
+
+  double x = Math.round(lonToX(wrapLon(lon), zoom) / gridPixels) * (double) gridPixels;
+  double y = Math.round(latToY(lat, zoom) / gridPixels) * (double) gridPixels;
+
+  return new double[]{yToLat(y, zoom), wrapLon(xToLon(x, zoom))};
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// self test method
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * replays recorded sessions (the pan steps SampleApp makes via {@link MapLookup#panCenter}) through an
+ * unbounded cache, with and without snapping, and prints the hit ratios.
+ * <p/>
+ * the first session pans back and forth from one start point. the second returns to the same area
+ * several times from starting points a few pixels apart (a saved waypoint, a country pick, typed
+ * coordinates, the IP location) and pans around from each.
+ */
+public static void main(String[] args) {
+
+  // R=right L=left U=up D=down +=zoom in -=zoom out
+  String panning =
+      "RRRRLLLLRRUUDDLLRRRR--++UUUDDDLLLLLLRRRRRR+--+RRLLUDUDRRRRLLLL" +
+      "DDDDUUUURLRLRLRL-RRLL+UURRDDLL++--LLLLRRRRUUUUDDDDRRLL" +
+      "RURURURULDLDLDLDRRDDLLUURRDDLLUU-RURU+LDLD++RRLL--";
+  double[][] oneStart = {{38.931099, -77.3489}};
+
+  String revisit = "RRUULLDDLLDDRRUU-R+L";
+  double[][] nearbyStarts = {
+      {38.931099, -77.3489},
+      {38.9311, -77.3489},
+      {38.93105, -77.34885},
+      {38.93118, -77.34902},
+      {38.931, -77.3488},
+      {38.93112, -77.34893},
+  };
+
+  int[] grids = {0, 4, 16, 32};
+  for (int grid : grids) {
+    MapLookup.setSnapGridPixels(grid);
+    String mode = grid == 0 ? "no snapping      " : "snap to " + grid + "px grid" + (grid < 10 ? " " : "");
+    System.out.println("pan session,     " + mode + " : " + _replay(oneStart, panning));
+    System.out.println("revisit session, " + mode + " : " + _replay(nearbyStarts, revisit));
+  }
+
+  MapLookup.setSnapGridPixels(0);
+}
+
+private static MapImageCache _replay(double[][] starts, String moves) {
+  MapImageCache cache = new MapImageCache(Long.MAX_VALUE);
+
+  for (double[] start : starts) {
+    double lat = start[0];
+    double lon = start[1];
+    int zoom = 14;
+    _fetch(cache, lat, lon, zoom);
+
+    for (int i = 0; i < moves.length(); i++) {
+      double[] center = {lat, lon};
+      switch (moves.charAt(i)) {
+        case 'R': center = MapLookup.panCenter(lat, lon, zoom, 1, 0); break;
+        case 'L': center = MapLookup.panCenter(lat, lon, zoom, -1, 0); break;
+        case 'U': center = MapLookup.panCenter(lat, lon, zoom, 0, 1); break;
+        case 'D': center = MapLookup.panCenter(lat, lon, zoom, 0, -1); break;
+        case '+': zoom++; break;
+        case '-': zoom--; break;
+      }
+      lat = center[0];
+      lon = center[1];
+      _fetch(cache, lat, lon, zoom);
+    }
+  }
+
+  return cache;
+}
+
+private static void _fetch(MapImageCache cache, double lat, double lon, int zoom) {
+  MapRequest r = new MapRequest(lat, lon, MapLookup.SizeMax, MapLookup.SizeMax, zoom);
+  if (cache.get(r) == null) cache.put(r, new byte[0], null);
+}
+
+}//end class MapProjection
@@ -0,0 +1,150 @@
+package Provider.GoogleMapsStatic;
+
+/**
+ * MapRequest
+ * <p/>
+ * The parameters that {@link MapLookup#getURI(double, double, int, int, int)} turns into a static map
+ * URI, normalized so that two requests for the same view compare equal. Latitude and longitude are
+ * kept to the 6 decimal places the static maps API honours (see {@link MapMarker}), so values that
+ * only differ by floating point noise map to the same request. When {@link MapLookup} snapping is on
+ * the center is snapped first, the same way the URI would be. Instances are immutable and can be
+ * used as cache keys.
+ */
+public class MapRequest {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** coordinates are stored as integer millionths of a degree */
+public static final double CoordinateScale = 1e6;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final long _latE6;
+private final long _lonE6;
+private final int _sizeW;
+private final int _sizeH;
+private final int _zoom;
+private final boolean _centerMarker;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapRequest(double lat, double lon, int sizeW, int sizeH, int zoom) {
+  this(lat, lon, sizeW, sizeH, zoom, true, true);
+}
+
+/**
+ * @param centerMarker false to leave the marker at the center out of the map
+ * @param snap false to use the center as given even when {@link MapLookup} snapping is on (eg. for
+ *             the tiles of a mosaic, which must line up exactly)
+ */
+public MapRequest(double lat, double lon, int sizeW, int sizeH, int zoom, boolean centerMarker, boolean snap) {
+  double[] center = snap ? MapLookup.snapCenter(lat, lon, zoom) : new double[]{lat, lon};
+  _latE6 = Math.round(center[0] * CoordinateScale);
+  _lonE6 = Math.round(center[1] * CoordinateScale);
+  _sizeW = sizeW;
+  _sizeH = sizeH;
+  _zoom = zoom;
+  _centerMarker = centerMarker;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public double getLat() {
+  return _latE6 / CoordinateScale;
+}
+
+public double getLon() {
+  return _lonE6 / CoordinateScale;
+}
+
+public int getSizeW() {
+  return _sizeW;
+}
+
+public int getSizeH() {
+  return _sizeH;
+}
+
+public int getZoom() {
+  return _zoom;
+}
+
+public boolean hasCenterMarker() {
+  return _centerMarker;
+}
+
+/** the static map URI for this request, built from the normalized coordinates */
+public String getURI() {
+  return MapLookup._map.getExactURI(getLat(), getLon(), _sizeW, _sizeH, _zoom, _centerMarker);
+}
+
+/**
+ * the same area at a lower zoom, with neither side bigger than sizeMax. every zoom level dropped
+ * quarters the pixels, so it arrives much sooner than this request and can be shown scaled up until
+ * this one does.
+ *
+ * @return the smaller request, or null if this one already fits sizeMax or the zoom can't go low enough
+ */
+public MapRequest lowRes(int sizeMax) {
+  int levels = 0;
+  while (Math.max(_sizeW, _sizeH) >> levels > sizeMax) levels++;
+  if (levels == 0 || _zoom - levels < MapLookup.ZoomMin) return null;
+
+  int w = Math.max(MapLookup.SizeMin, (_sizeW + (1 << levels) - 1) >> levels);
+  int h = Math.max(MapLookup.SizeMin, (_sizeH + (1 << levels) - 1) >> levels);
+  return new MapRequest(getLat(), getLon(), w, h, _zoom - levels, _centerMarker, false);
+}
+
+/**
+ * the area the map shows, by Web Mercator. when it crosses the antimeridian west is greater than
+ * east; a map wider than the world spans all longitudes.
+ *
+ * @return {south, west, north, east}
+ */
+public double[] getBounds() {
+  double x = MapProjection.lonToX(getLon(), _zoom);
+  double y = MapProjection.latToY(getLat(), _zoom);
+  double south = MapProjection.yToLat(y + _sizeH / 2.0, _zoom);
+  double north = MapProjection.yToLat(y - _sizeH / 2.0, _zoom);
+  if (_sizeW >= MapProjection.worldSize(_zoom)) return new double[]{south, -180, north, 180};
+  double west = MapProjection.wrapLon(MapProjection.xToLon(x - _sizeW / 2.0, _zoom));
+  double east = MapProjection.wrapLon(MapProjection.xToLon(x + _sizeW / 2.0, _zoom));
+  return new double[]{south, west, north, east};
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// equality
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public boolean equals(Object o) {
+  if (this == o) return true;
+  if (!(o instanceof MapRequest)) return false;
+
+  MapRequest r = (MapRequest) o;
+  return _latE6 == r._latE6 &&
+         _lonE6 == r._lonE6 &&
+         _sizeW == r._sizeW &&
+         _sizeH == r._sizeH &&
+         _zoom == r._zoom &&
+         _centerMarker == r._centerMarker;
+}
+
+public int hashCode() {
+  int h = (int) (_latE6 ^ (_latE6 >>> 32));
+  h = 31 * h + (int) (_lonE6 ^ (_lonE6 >>> 32));
+  h = 31 * h + _sizeW;
+  h = 31 * h + _sizeH;
+  h = 31 * h + _zoom;
+  h = 31 * h + (_centerMarker ? 1 : 0);
+  return h;
+}
+
+public String toString() {
+  return getLat() + "," + getLon() + " z" + _zoom + " " + _sizeW + MapLookup.SizeSeparator + _sizeH +
+         (_centerMarker ? "" : " nomarker");
+}
+
+}//end class MapRequest
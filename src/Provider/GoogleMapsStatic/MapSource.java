@@ -0,0 +1,101 @@
+package Provider.GoogleMapsStatic;
+
+import Task.Support.GUISupport.*;
+import org.apache.commons.httpclient.methods.*;
+
+import javax.imageio.*;
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * MapSource
+ * <p/>
+ * Gets maps for background work (prefetching, mosaic tiles): from the {@link MapImageCache} if it is
+ * there, then from the {@link MapDiskCache}, and otherwise from Google through the shared
+ * {@link MapHttpClient}. Whatever is found on disk or downloaded is decoded once and stored in the
+ * caches for next time.
+ */
+public class MapSource {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final MapImageCache _memory;
+private final MapDiskCache _disk;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @param disk may be null */
+public MapSource(MapImageCache memory, MapDiskCache disk) {
+  _memory = memory;
+  _disk = disk;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// methods
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MapImageCache getMemoryCache() {
+  return _memory;
+}
+
+/** @return true if the map is in memory, without counting a cache hit or miss */
+public boolean isInMemory(MapRequest request) {
+  return _memory.contains(request);
+}
+
+/** @return the map from memory or disk, or null if it has to be downloaded */
+public MapImageCache.Entry getCached(MapRequest request) throws IOException {
+  MapImageCache.Entry e = _memory.get(request);
+  if (e != null) return e;
+
+  byte[] data = _disk == null ? null : _disk.get(request);
+  if (data == null) return null;
+
+  BufferedImage img = _decode(data);
+  if (img == null) return null;
+
+  return _memory.put(request, data, img);
+}
+
+/** @return the map from memory, disk or the network */
+public MapImageCache.Entry get(MapRequest request) throws IOException {
+  MapImageCache.Entry e = getCached(request);
+  if (e != null) return e;
+
+  return download(request, new GetMethod(request.getURI()));
+}
+
+/**
+ * executes the given GET for the request and caches the result. the caller can abort the method
+ * from another thread to stop the download.
+ *
+ * @return the downloaded map, or null if the server didn't send an image
+ * @throws IOException also if the request's URI is too long, see {@link MapLookup#checkURI}
+ */
+public MapImageCache.Entry download(MapRequest request, GetMethod get) throws IOException {
+  MapLookup.checkURI(request.getURI());
+  byte[] data;
+  try {
+    MapHttpClient.getClient().executeMethod(get);
+    if (get.getStatusCode() != 200) return null;
+    data = get.getResponseBody();
+  }
+  finally {
+    get.releaseConnection();
+  }
+
+  BufferedImage img = _decode(data);
+  if (img == null) return null;
+
+  MapImageCache.Entry e = _memory.put(request, data, img);
+  if (_disk != null) _disk.put(request, data);
+  return e;
+}
+
+private static BufferedImage _decode(byte[] data) throws IOException {
+  BufferedImage img = ImageIO.read(new ByteArrayInputStream(data));
+  return img == null ? null : ImageUtils.toCompatibleImage(img);
+}
+
+}//end class MapSource
@@ -0,0 +1,370 @@
+package Provider.GoogleMapsStatic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * MarkerClusterer
+ * <p/>
+ * Reduces any number of markers to a bounded set of cluster markers for one zoom, so a map of many
+ * points still fits in a URI and can be read. Points are binned by their Web Mercator pixel at the
+ * zoom into square cells of {@link #getCellPixels} pixels, aligned to the world so a cluster doesn't
+ * change when the map is panned; each non empty cell is a cluster at the mean position of its
+ * points. When that makes more clusters than {@link #getClustersMax} the cells are doubled in
+ * size, 2x2 cells becoming one, until they fit.
+ * <p/>
+ * Binning is a pass over the points through an open addressing table of cells that stops as soon
+ * as the table has too many, so the grids that are too fine mostly cost a handful of points and
+ * clustering is O(N) in the points plus a little per zoom level. Points either side of the
+ * antimeridian only share a cluster on a map that crosses it.
+ */
+public class MarkerClusterer {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** about two markers wide, so the markers of neighbouring clusters don't overlap much */
+public static final int CellPixelsDefault = 48;
+/** at roughly 25 chars a marker this keeps the markers of a URI under 1300 chars */
+public static final int ClustersMaxDefault = 50;
+/** clusters of this many points or more are blue, smaller ones green */
+public static final int LargeClusterSize = 100;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final int _cellPixels;
+private final int _clustersMax;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public MarkerClusterer() {
+  this(CellPixelsDefault, ClustersMaxDefault);
+}
+
+/**
+ * @param cellPixels  side of the smallest cells in pixels, points closer than this at the zoom
+ *                    usually end up in one cluster
+ * @param clustersMax most clusters returned
+ */
+public MarkerClusterer(int cellPixels, int clustersMax) {
+  if (cellPixels < 1) throw new IllegalArgumentException("cellPixels must be at least 1");
+  if (clustersMax < 1) throw new IllegalArgumentException("clustersMax must be at least 1");
+  _cellPixels = cellPixels;
+  _clustersMax = clustersMax;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// accessors
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+public int getCellPixels() {
+  return _cellPixels;
+}
+
+public int getClustersMax() {
+  return _clustersMax;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// clustering
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * clusters points anywhere in the world for a map at the given zoom.
+ *
+ * @param n how many of lats and lons are points
+ * @return the clusters, largest first
+ */
+public List<Cluster> cluster(double[] lats, double[] lons, int n, int zoom) {
+  return _cluster(lats, lons, n, zoom, null);
+}
+
+/**
+ * clusters the points that are on the map of the given view, the others are left out.
+ *
+ * @param n how many of lats and lons are points
+ * @return the clusters, largest first
+ */
+public List<Cluster> cluster(MapRequest view, double[] lats, double[] lons, int n) {
+  return _cluster(lats, lons, n, view.getZoom(), view);
+}
+
+/** @return the clusters of the markers on the map of the given view, largest first */
+public List<Cluster> cluster(MapRequest view, MapMarker... markers) {
+  double[] lats = new double[markers.length];
+  double[] lons = new double[markers.length];
+  for (int i = 0; i < markers.length; i++) {
+    lats[i] = markers[i].getLat();
+    lons[i] = markers[i].getLon();
+  }
+  return cluster(view, lats, lons, markers.length);
+}
+
+/**
+ * the markers for clusters: a plain marker for a single point, and for larger clusters a green or
+ * (from {@link #LargeClusterSize} points) blue one. the 26 largest are labelled a to z in order, so
+ * a legend can give their sizes; the rest share 'z'.
+ */
+public static MapMarker[] toMarkers(List<Cluster> clusters) {
+  MapMarker[] markers = new MapMarker[clusters.size()];
+  int labelled = 0;
+  for (int i = 0; i < markers.length; i++) {
+    Cluster c = clusters.get(i);
+    if (c.getCount() == 1) {
+      markers[i] = new MapMarker(c.getLat(), c.getLon());
+    }
+    else {
+      MapMarker.MarkerColor color = c.getCount() >= LargeClusterSize ? MapMarker.MarkerColor.blue
+                                                                      : MapMarker.MarkerColor.green;
+      markers[i] = new MapMarker(c.getLat(), c.getLon(), color, (char) ('a' + Math.min(labelled++, 25)));
+    }
+  }
+  return markers;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// cluster
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** points drawn as one marker, at their mean position on the map */
+public static class Cluster {
+  private final double _lat;
+  private final double _lon;
+  private final int _count;
+
+  Cluster(double lat, double lon, int count) {
+    _lat = lat;
+    _lon = lon;
+    _count = count;
+  }
+
+  public double getLat() {
+    return _lat;
+  }
+
+  public double getLon() {
+    return _lon;
+  }
+
+  /** how many points the cluster stands for */
+  public int getCount() {
+    return _count;
+  }
+
+  public String toString() {
+    return _lat + "," + _lon + " x" + _count;
+  }
+}// class Cluster
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// self test method
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * times clustering against the number of points and the zoom, for points spread evenly over the
+ * world and for points crowded around a few cities, and prints the clusters each ends with.
+ * <p/>
+ * usage: MarkerClusterer [maxPoints]
+ */
+public static void main(String[] args) {
+  int maxPoints = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+  int[] zooms = {0, 4, 8, 12, 16, 19};
+  MarkerClusterer clusterer = new MarkerClusterer();
+
+  Random random = new Random(42);
+  double[] lats = new double[maxPoints];
+  double[] lons = new double[maxPoints];
+  double[] cityLats = new double[maxPoints];
+  double[] cityLons = new double[maxPoints];
+  double[][] cities = {{38.9311, -77.3489}, {40.7421, -74.0018}, {51.5072, -0.1276}, {35.6762, 139.6503}};
+  for (int i = 0; i < maxPoints; i++) {
+    lats[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+    lons[i] = random.nextDouble() * 360 - 180;
+    double[] city = cities[i % cities.length];
+    cityLats[i] = city[0] + random.nextGaussian() * 0.05;
+    cityLons[i] = city[1] + random.nextGaussian() * 0.05;
+  }
+
+  // warm up, so the first timings aren't the JIT's
+  for (int i = 0; i < 5; i++) clusterer.cluster(lats, lons, Math.min(maxPoints, 100000), 10);
+
+  for (int k = 0; k < 2; k++) {
+    double[] la = k == 0 ? lats : cityLats;
+    double[] lo = k == 0 ? lons : cityLons;
+    System.out.println(k == 0 ? "points spread over the world" : "points around " + cities.length + " cities");
+    System.out.println("      points   zoom  clusters   largest        ms  ns/point");
+    for (int n = 1000; n <= maxPoints; n *= 10) {
+      for (int zoom : zooms) {
+        long start = System.nanoTime();
+        List<Cluster> clusters = clusterer.cluster(la, lo, n, zoom);
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("%12d %6d %9d %9d %9.1f %9.1f", n, zoom, clusters.size(),
+                                         clusters.get(0).getCount(), nanos / 1e6, (double) nanos / n));
+      }
+    }
+    System.out.println();
+  }
+
+  // one view, as SampleApp would show it
+  MapRequest view = new MapRequest(38.9311, -77.3489, MapLookup.SizeMax, MapLookup.SizeMax, 12, false, false);
+  long start = System.nanoTime();
+  List<Cluster> clusters = clusterer.cluster(view, cityLats, cityLons, maxPoints);
+  long nanos = System.nanoTime() - start;
+  int onMap = 0;
+  for (Cluster c : clusters) onMap += c.getCount();
+  System.out.println(String.format("%d points around cities, %d on a %s map: %d clusters in %.1fms",
+                                   maxPoints, onMap, view, clusters.size(), nanos / 1e6));
+  System.out.println(MapLookup._map.getURI(view.getLat(), view.getLon(), view.getSizeW(), view.getSizeH(),
+                                           view.getZoom(), toMarkers(clusters)).length() + " chars in the URI");
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * projects the points, then bins them into cells of CellPixels, doubling the cells until there are
+ * few enough. a binning gives up as soon as it has too many cells, so the grids that are too fine
+ * usually cost only a few points each and just the last one looks at every point. with a view,
+ * only the points on its map are binned.
+ */
+private List<Cluster> _cluster(double[] lats, double[] lons, int n, int zoom, MapRequest view) {
+  if (zoom < MapLookup.ZoomMin || zoom > MapLookup.ZoomMax)
+    throw new IllegalArgumentException("zoom value is out of range [" + MapLookup.ZoomMin + "-" + MapLookup.ZoomMax + "]");
+
+  double world = MapProjection.worldSize(zoom);
+  double centerX = 0, centerY = 0, halfW = 0, halfH = 0;
+  if (view != null) {
+    centerX = MapProjection.lonToX(view.getLon(), zoom);
+    centerY = MapProjection.latToY(view.getLat(), zoom);
+    halfW = view.getSizeW() / 2.0;
+    halfH = view.getSizeH() / 2.0;
+  }
+
+  // world pixels, moved a world to the east so that the copies of points west of a view across
+  // the antimeridian aren't negative either
+  double[] xs = new double[n];
+  double[] ys = new double[n];
+  int m = 0;
+  for (int i = 0; i < n; i++) {
+    double x = (lons[i] + 180) / 360 * world;
+    double y = MapProjection.latToY(lats[i], zoom);
+    if (view != null) {
+      // the copy of the point nearest the view, so maps across the antimeridian work
+      double dx = x - centerX;
+      if (dx > world / 2) x -= world;
+      else if (dx < -world / 2) x += world;
+      if (Math.abs(x - centerX) > halfW || Math.abs(y - centerY) > halfH) continue;
+    }
+    xs[m] = x + world;
+    ys[m] = y;
+    m++;
+  }
+
+  // once a cell is wider than all the points they share it
+  Cells cells = null;
+  for (double cell = _cellPixels; cells == null; cell *= 2) {
+    cells = _bin(xs, ys, m, cell, cell > 3 * world ? Integer.MAX_VALUE : _clustersMax);
+  }
+
+  ArrayList<Cluster> clusters = new ArrayList<Cluster>(cells.size());
+  for (int s = 0; s < cells.capacity(); s++) {
+    int count = cells.counts[s];
+    if (count == 0) continue;
+    double x = cells.sumX[s] / count - world;
+    double y = cells.sumY[s] / count;
+    clusters.add(new Cluster(MapProjection.yToLat(y, zoom), MapProjection.wrapLon(MapProjection.xToLon(x, zoom)),
+                             count));
+  }
+  Collections.sort(clusters, new Comparator<Cluster>() {
+    public int compare(Cluster a, Cluster b) {
+      return a.getCount() > b.getCount() ? -1 : a.getCount() < b.getCount() ? 1 : 0;
+    }
+  });
+  return clusters;
+}
+
+/** @return the points binned into square cells of the given size, or null if that is more than cellsMax */
+private static Cells _bin(double[] xs, double[] ys, int n, double cell, int cellsMax) {
+  Cells cells = new Cells(Math.min(n, cellsMax));
+  for (int i = 0; i < n; i++) {
+    long key = (long) (xs[i] / cell) << 32 | (long) (ys[i] / cell);
+    cells.add(key, xs[i], ys[i], 1);
+    if (cells.size() > cellsMax) return null;
+  }
+  return cells;
+}
+
+/** an open addressing table from cell key to the count and pixel sums of its points */
+private static class Cells {
+  long[] keys;
+  int[] counts; // 0 for an empty slot
+  double[] sumX;
+  double[] sumY;
+  private int _size;
+
+  Cells(int expected) {
+    int capacity = 16;
+    while (capacity < 2 * expected) capacity <<= 1;
+    _allocate(capacity);
+  }
+
+  int size() {
+    return _size;
+  }
+
+  int capacity() {
+    return keys.length;
+  }
+
+  void add(long key, double x, double y, int count) {
+    int mask = keys.length - 1;
+    int s = _hash(key) & mask;
+    while (counts[s] != 0 && keys[s] != key) s = (s + 1) & mask;
+    if (counts[s] == 0) {
+      // kept at most half full, so probes stay short
+      if ((_size + 1) * 2 > keys.length) {
+        _grow();
+        add(key, x, y, count);
+        return;
+      }
+      keys[s] = key;
+      _size++;
+    }
+    counts[s] += count;
+    sumX[s] += x;
+    sumY[s] += y;
+  }
+
+  private void _grow() {
+    long[] k = keys;
+    int[] c = counts;
+    double[] x = sumX;
+    double[] y = sumY;
+    _allocate(2 * k.length);
+    int mask = keys.length - 1;
+    for (int i = 0; i < k.length; i++) {
+      if (c[i] == 0) continue;
+      int s = _hash(k[i]) & mask;
+      while (counts[s] != 0) s = (s + 1) & mask;
+      keys[s] = k[i];
+      counts[s] = c[i];
+      sumX[s] = x[i];
+      sumY[s] = y[i];
+    }
+  }
+
+  private void _allocate(int capacity) {
+    keys = new long[capacity];
+    counts = new int[capacity];
+    sumX = new double[capacity];
+    sumY = new double[capacity];
+  }
+
+  private static int _hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}// class Cells
+
+}//end class MarkerClusterer
@@ -0,0 +1,350 @@
+package Provider.GoogleMapsStatic;
+
+import Task.Support.GUISupport.*;
+import org.apache.commons.httpclient.methods.*;
+
+import javax.imageio.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * MarkerSplitter
+ * <p/>
+ * Gets a map with more markers than fit in one URI (see {@link MapLookup#UriLengthMax}). The markers
+ * are split into groups that each fit, {@link #split}, and the map of the same view is fetched once
+ * for each group, at the same time, along with the map without markers. Each part differs from the
+ * plain map only where its markers are, so those pixels are copied onto the plain map to merge
+ * them. With more than {@link #PartsMax} groups, or when a part can't be fetched, the markers are
+ * drawn on the plain map by a {@link MapOverlay} instead, which looks a little different but needs
+ * no more requests. {@link MapLookup#getMaps} gives the URIs of the parts, and every fetch refuses a
+ * URI that is too long, see {@link MapLookup#checkURI}.
+ */
+public class MarkerSplitter {
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constants
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** parts fetched at the same time, as many as the http client keeps connections to a host */
+public static final int ConcurrencyDefault = MapHttpClient.MaxConnectionsPerHostDefault;
+/** more parts than this are drawn as an overlay instead of being fetched */
+public static final int PartsMax = 8;
+/** a pixel of a part that differs from the plain map by more than this in a color is a marker's */
+public static final int MarkerPixelThreshold = 24;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// data
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private final MapSource _source;
+private final int _concurrency;
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// constructor
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** @param source where the plain map comes from, so it is shared with the caches */
+public MarkerSplitter(MapSource source) {
+  this(source, ConcurrencyDefault);
+}
+
+public MarkerSplitter(MapSource source, int concurrency) {
+  if (concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+  _source = source;
+  _concurrency = concurrency;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// methods
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * splits the markers, in order, into as few groups as fit: the URI of the view with each group's
+ * markers is at most {@link MapLookup#UriLengthMax} chars.
+ *
+ * @return one group with all the markers if they fit in one URI
+ */
+public static List<MapMarker[]> split(double lat, double lon, int sizeW, int sizeH, int zoom,
+                                      MapMarker... markers) {
+  // the URI without markers, and the "&markers=" they need
+  int base = MapLookup._map.getURI(lat, lon, sizeW, sizeH, zoom, new MapMarker[0]).length() +
+             1 + MapLookup.MarkersKey.length() + 1;
+
+  ArrayList<MapMarker[]> groups = new ArrayList<MapMarker[]>();
+  int from = 0;
+  int length = base;
+  for (int i = 0; i < markers.length; i++) {
+    int add = markers[i].toString().length() + (i > from ? MapLookup.MarkerSeparator.length() : 0);
+    if (i > from && length + add > MapLookup.UriLengthMax) {
+      groups.add(Arrays.copyOfRange(markers, from, i));
+      from = i;
+      add = markers[i].toString().length();
+      length = base;
+    }
+    length += add;
+  }
+  if (from < markers.length || groups.isEmpty()) groups.add(Arrays.copyOfRange(markers, from, markers.length));
+  return groups;
+}
+
+/**
+ * gets the map of the view with all the markers, in one request if they fit, otherwise in parts
+ * that are merged, or as an overlay.
+ */
+public Result render(double lat, double lon, int sizeW, int sizeH, int zoom, MapMarker... markers)
+    throws InterruptedException {
+  long start = System.currentTimeMillis();
+  final List<MapMarker[]> groups = split(lat, lon, sizeW, sizeH, zoom, markers);
+  final MapRequest plain = new MapRequest(lat, lon, sizeW, sizeH, zoom, false, false);
+
+  // all in one URI, nothing to merge
+  if (groups.size() == 1) {
+    BufferedImage img = null;
+    String error = null;
+    try {
+      img = _download(MapLookup._map.getURI(lat, lon, sizeW, sizeH, zoom, markers));
+    }
+    catch (IOException e) {
+      error = e.toString();
+    }
+    if (img != null) return new Result(img, 1, 0, false, System.currentTimeMillis() - start);
+    return _overlay(plain, markers, 1, 1, start, error);
+  }
+  if (groups.size() > PartsMax) return _overlay(plain, markers, groups.size(), 0, start, null);
+
+  // the plain map and the parts, all at once
+  final BufferedImage[] parts = new BufferedImage[groups.size()];
+  final String[] errors = new String[groups.size() + 1];
+  ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+  final MapImageCache.Entry[] base = new MapImageCache.Entry[1];
+  jobs.add(new Callable<Object>() {
+    public Object call() {
+      try {
+        base[0] = _source.get(plain);
+      }
+      catch (IOException e) {
+        errors[groups.size()] = e.toString();
+      }
+      return null;
+    }
+  });
+  for (int i = 0; i < groups.size(); i++) {
+    final int part = i;
+    final String uri = MapLookup._map.getURI(lat, lon, sizeW, sizeH, zoom, groups.get(i));
+    jobs.add(new Callable<Object>() {
+      public Object call() {
+        try {
+          parts[part] = _download(uri);
+        }
+        catch (IOException e) {
+          errors[part] = e.toString();
+        }
+        return null;
+      }
+    });
+  }
+
+  ExecutorService executor = Executors.newFixedThreadPool(Math.min(_concurrency, jobs.size()));
+  try {
+    executor.invokeAll(jobs);
+  }
+  finally {
+    executor.shutdownNow();
+  }
+
+  int failed = 0;
+  String error = null;
+  for (int i = 0; i < parts.length; i++) {
+    if (parts[i] == null) {
+      failed++;
+      if (error == null) error = errors[i] != null ? errors[i] : "part " + i + " is not an image";
+    }
+  }
+  if (base[0] == null || failed > 0) {
+    if (base[0] == null) error = errors[groups.size()] != null ? errors[groups.size()] : "the map is not an image";
+    return _overlay(plain, markers, groups.size(), failed, start, error, base[0]);
+  }
+
+  BufferedImage img = merge(base[0].getImage(), parts);
+  return new Result(img, groups.size(), 0, false, System.currentTimeMillis() - start);
+}
+
+/**
+ * merges maps of one view with different markers: the pixels where a part differs from the plain
+ * map are copied onto it. later parts win where markers overlap.
+ *
+ * @return a new image, the plain map and the parts are left alone
+ */
+public static BufferedImage merge(BufferedImage plain, BufferedImage... parts) {
+  int w = plain.getWidth();
+  int h = plain.getHeight();
+  BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+  int[] base = plain.getRGB(0, 0, w, h, null, 0, w);
+  int[] out = base.clone();
+  int[] pixels = new int[w * h];
+  for (BufferedImage part : parts) {
+    if (part.getWidth() != w || part.getHeight() != h)
+      throw new IllegalArgumentException("part is " + part.getWidth() + MapLookup.SizeSeparator + part.getHeight() +
+                                         ", the map " + w + MapLookup.SizeSeparator + h);
+    part.getRGB(0, 0, w, h, pixels, 0, w);
+    for (int i = 0; i < pixels.length; i++) {
+      if (_differs(pixels[i], base[i])) out[i] = pixels[i];
+    }
+  }
+  img.setRGB(0, 0, w, h, out, 0, w);
+  return img;
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// results
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/** the map with all the markers and how it was made */
+public static class Result {
+  private final BufferedImage _image;
+  private final int _parts;
+  private final int _failed;
+  private final boolean _overlay;
+  private final long _millis;
+  private final String _error;
+
+  Result(BufferedImage image, int parts, int failed, boolean overlay, long millis) {
+    this(image, parts, failed, overlay, millis, null);
+  }
+
+  Result(BufferedImage image, int parts, int failed, boolean overlay, long millis, String error) {
+    _image = image;
+    _parts = parts;
+    _failed = failed;
+    _overlay = overlay;
+    _millis = millis;
+    _error = error;
+  }
+
+  public BufferedImage getImage() {
+    return _image;
+  }
+
+  /** how many URIs the markers needed */
+  public int getParts() {
+    return _parts;
+  }
+
+  /** how many parts couldn't be fetched */
+  public int getFailed() {
+    return _failed;
+  }
+
+  /** true if the markers were drawn on the client instead of merged from parts */
+  public boolean isOverlay() {
+    return _overlay;
+  }
+
+  public long getMillis() {
+    return _millis;
+  }
+
+  /** @return why the parts weren't used, or null */
+  public String getError() {
+    return _error;
+  }
+
+  public String getReport() {
+    return "markers in " + _parts + (_parts == 1 ? " part" : " parts") +
+           (_failed > 0 ? " (" + _failed + " failed)" : "") +
+           (_overlay ? ", drawn as an overlay" : _parts > 1 ? ", merged" : "") +
+           (_error != null ? " - " + _error : "") + ", " + _millis + "ms";
+  }
+}// class Result
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// self test method
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+/**
+ * prints how growing numbers of markers on one map are split, and the longest URI of each split.
+ * nothing is fetched.
+ */
+public static void main(String[] args) {
+  double lat = 38.931099;
+  double lon = -77.3489;
+  int zoom = 12;
+  Random random = new Random(42);
+
+  System.out.println(" markers  one URI chars  parts  longest part   " + "how (of at most " + PartsMax + " parts)");
+  for (int n = 10; n <= 10000; n *= 10) {
+    for (int k = 1; k <= 5; k += 4) {
+      int count = n * k;
+      MapMarker[] markers = new MapMarker[count];
+      for (int i = 0; i < count; i++) {
+        markers[i] = new MapMarker(lat + random.nextGaussian() * 0.03, lon + random.nextGaussian() * 0.03);
+      }
+      int one = MapLookup._map.getURI(lat, lon, MapLookup.SizeMax, MapLookup.SizeMax, zoom, markers).length();
+      List<MapMarker[]> groups = split(lat, lon, MapLookup.SizeMax, MapLookup.SizeMax, zoom, markers);
+      int longest = 0;
+      for (MapMarker[] g : groups) {
+        longest = Math.max(longest, MapLookup._map.getURI(lat, lon, MapLookup.SizeMax, MapLookup.SizeMax, zoom, g).length());
+      }
+      System.out.println(String.format("%8d %14d %6d %13d   %s", count, one, groups.size(), longest,
+                                       groups.size() == 1 ? "one request" :
+                                       groups.size() <= PartsMax ? "parts fetched at once and merged" :
+                                       "overlay on the plain map"));
+    }
+  }
+}
+
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+// internals
+//XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+private Result _overlay(MapRequest plain, MapMarker[] markers, int parts, int failed, long start, String error) {
+  MapImageCache.Entry e = null;
+  try {
+    e = _source.get(plain);
+  }
+  catch (IOException ex) {
+    if (error == null) error = ex.toString();
+  }
+  return _overlay(plain, markers, parts, failed, start, error, e);
+}
+
+/** the markers drawn on the plain map, or on a blank one if there is none */
+private static Result _overlay(MapRequest plain, MapMarker[] markers, int parts, int failed, long start,
+                               String error, MapImageCache.Entry base) {
+  BufferedImage map = base != null ? base.getImage() : null;
+  if (map == null) {
+    map = new BufferedImage(plain.getSizeW(), plain.getSizeH(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = map.createGraphics();
+    g.setColor(MapCanvas.MissingColor);
+    g.fillRect(0, 0, map.getWidth(), map.getHeight());
+    g.dispose();
+  }
+  BufferedImage img = new MapOverlay(markers).paint(map, plain);
+  return new Result(img, parts, failed, true, System.currentTimeMillis() - start, error);
+}
+
+/** @return the image at the URI, or null if the server didn't send one */
+private static BufferedImage _download(String uri) throws IOException {
+  MapLookup.checkURI(uri);
+  GetMethod get = new GetMethod(uri);
+  byte[] data;
+  try {
+    MapHttpClient.getClient().executeMethod(get);
+    if (get.getStatusCode() != 200) return null;
+    data = get.getResponseBody();
+  }
+  finally {
+    get.releaseConnection();
+  }
+
+  BufferedImage img = ImageIO.read(new ByteArrayInputStream(data));
+  return img == null ? null : ImageUtils.toCompatibleImage(img);
+}
+
+/** true if any color differs by more than MarkerPixelThreshold */
+private static boolean _differs(int a, int b) {
+  return Math.abs((a >> 16 & 0xff) - (b >> 16 & 0xff)) > MarkerPixelThreshold ||
+         Math.abs((a >> 8 & 0xff) - (b >> 8 & 0xff)) > MarkerPixelThreshold ||
+         Math.abs((a & 0xff) - (b & 0xff)) > MarkerPixelThreshold;
+}
+
+}//end class MarkerSplitter
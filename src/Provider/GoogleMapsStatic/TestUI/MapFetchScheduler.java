@@ -0,0 +1,146 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import Task.*;
+import org.apache.commons.httpclient.*;
+
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MapFetchScheduler sits in front of the {@link SimpleTask} that downloads
+ * the map. Zoom slider drags, pan clicks and Get Map clicks all call
+ * {@link #request()}; bursts of requests inside the debounce window collapse
+ * into a single fetch, and a fetch that is still running when a newer one
+ * starts is cancelled and its HTTP GETs aborted. Every request bumps a
+ * generation counter so a superseded fetch that still finishes can tell that
+ * its result is stale and throw it away - the most recent view always wins.
+ * <p>
+ * All methods except {@link #register}, {@link #release} and
+ * {@link #isCurrent} are meant to be called from the EDT.
+ */
+class MapFetchScheduler {
+	/**
+	 * Told when the task refuses to start
+	 */
+	interface ErrorHandler {
+		void taskError(TaskException e);
+	}
+
+	static final int DEBOUNCE_DEFAULT = 150; // ms of quiet before a fetch starts
+
+	private final AbstractTask task; // the task that performs the download
+	private final Timer debounceTimer; // restarted by every request
+	private final AtomicLong generation = new AtomicLong(); // id of the latest request
+	private final ErrorHandler errorHandler; // told when the task can't start
+	// GETs of the running fetch, one per tile for a mosaic
+	private final Set<HttpMethodBase> inFlight = Collections
+			.newSetFromMap(new ConcurrentHashMap<HttpMethodBase, Boolean>());
+
+	/**
+	 * MapFetchScheduler constructor
+	 * @param task the task that downloads the map
+	 * @param debounceMillis how long to wait for more requests before fetching
+	 * @param errorHandler receives the exception if the task can't be executed
+	 */
+	MapFetchScheduler(AbstractTask task, int debounceMillis,
+			ErrorHandler errorHandler) {
+		this.task = task;
+		this.errorHandler = errorHandler;
+		debounceTimer = new Timer(debounceMillis, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				fire();
+			}
+		});
+		debounceTimer.setRepeats(false);
+	}
+
+	/**
+	 * The request method asks for the current view to be fetched once the
+	 * debounce window passes without another request
+	 */
+	void request() {
+		generation.incrementAndGet();
+		debounceTimer.restart();
+	}
+
+	/**
+	 * The requestNow method fetches the current view immediately, used for
+	 * explicit clicks where there is no burst to wait for
+	 */
+	void requestNow() {
+		generation.incrementAndGet();
+		debounceTimer.stop();
+		fire();
+	}
+
+	/**
+	 * The currentGeneration method gets the id of the latest request. A fetch
+	 * records it when it starts and checks it with {@link #isCurrent} later.
+	 * @return id of the latest request
+	 */
+	long currentGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * The isCurrent method tells a fetch whether it is still wanted
+	 * @param gen the generation the fetch started with
+	 * @return true if no newer request has been made since
+	 */
+	boolean isCurrent(long gen) {
+		return generation.get() == gen;
+	}
+
+	/**
+	 * The register method records a GET of the running fetch so it can be
+	 * aborted when the fetch is superseded. A mosaic registers one per tile
+	 * @param get the method about to be executed
+	 */
+	void register(HttpMethodBase get) {
+		inFlight.add(get);
+	}
+
+	/**
+	 * The release method forgets the GET once its fetch is done with it
+	 * @param get the method that has finished
+	 */
+	void release(HttpMethodBase get) {
+		inFlight.remove(get);
+	}
+
+	/**
+	 * The shutdown method drops any pending request and aborts the running
+	 * fetch
+	 */
+	void shutdown() {
+		debounceTimer.stop();
+		generation.incrementAndGet();
+		abortInFlight();
+	}
+
+	/**
+	 * The fire method cancels whatever is still running and starts the task
+	 * for the latest view
+	 */
+	private void fire() {
+		abortInFlight();
+		task.cancel();
+		try {
+			task.execute();
+		} catch (TaskException e) {
+			errorHandler.taskError(e);
+		}
+	}
+
+	private void abortInFlight() {
+		for (HttpMethodBase get : inFlight) {
+			inFlight.remove(get);
+			get.abort();
+		}
+	}
+}
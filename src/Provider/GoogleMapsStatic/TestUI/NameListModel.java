@@ -0,0 +1,270 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.util.Arrays;
+
+import javax.accessibility.Accessible;
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import javax.swing.JComboBox;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+import javax.swing.plaf.basic.ComboPopup;
+
+import Provider.GoogleMapsStatic.Gazetteer;
+
+/**
+ * The NameListModel is a ComboBoxModel that asks where the names are kept, a
+ * {@link WaypointStore} or the {@link Gazetteer}, for each name the list
+ * shows instead of holding a copy of them, so making it costs nothing
+ * however many names there are. Item 0 is a prompt such as "Waypoints...".
+ * {@link #setPinned} puts some names, eg. the waypoints near the map, right
+ * after it, ahead of the others.
+ * <p>
+ * {@link #setFilter} narrows the list to the names matching what the user
+ * typed, see {@link TypeAhead}. Boxes using the model should be given fixed
+ * cell sizes with {@link #virtualize}, otherwise Swing still measures every
+ * name when the box is laid out or its popup opened.
+ * <p>
+ * Like the other Swing models it must only be used in the EDT. After the
+ * names change call {@link #refresh()}.
+ */
+abstract class NameListModel extends AbstractListModel<String> implements
+		ComboBoxModel<String> {
+	private static final long serialVersionUID = 4920189949374288611L;
+
+	private final String prompt; // item 0
+	private Object selected; // the selected item
+	private String filter = ""; // what the list is narrowed by
+	private int[] matches; // indexes of the names passing the filter, null without one
+	private String[] pinned = new String[0]; // shown first while there is no filter
+
+	/**
+	 * NameListModel constructor
+	 * @param prompt the first item, selected at first
+	 */
+	NameListModel(String prompt) {
+		this.prompt = prompt;
+		selected = prompt;
+	}
+
+	/**
+	 * @return how many names there are, without the filter
+	 */
+	abstract int count();
+
+	/**
+	 * @return name i, from 0 to count() - 1
+	 */
+	abstract String name(int i);
+
+	/**
+	 * The match method finds the names that contain the text, ignoring case
+	 * and accents
+	 * @param text the filter, normalized by {@link Gazetteer#normalize}
+	 * @param within null to look through all names, else the indexes of the
+	 *        names to look through, the matches of a shorter filter
+	 * @return the indexes of the matching names, in order
+	 */
+	int[] match(String text, int[] within) {
+		int n = within == null ? count() : within.length;
+		int[] found = new int[n];
+		int size = 0;
+		for (int j = 0; j < n; j++) {
+			int i = within == null ? j : within[j];
+			if (contains(name(i), text))
+				found[size++] = i;
+		}
+		return Arrays.copyOf(found, size);
+	}
+
+	/**
+	 * The contains method is Gazetteer.normalize(name).contains(text), but
+	 * only normalizes names that aren't plain ASCII
+	 */
+	private static boolean contains(String name, String text) {
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) >= 0x80)
+				return Gazetteer.normalize(name).contains(text);
+		}
+		for (int i = 0; i <= name.length() - text.length(); i++) {
+			if (name.regionMatches(true, i, text, 0, text.length()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the model for a store's waypoints, in the order they were saved
+	 */
+	static NameListModel of(final WaypointStore store, String prompt) {
+		return new NameListModel(prompt) {
+			int count() {
+				return store.size();
+			}
+
+			String name(int i) {
+				return store.getName(i);
+			}
+		};
+	}
+
+	/**
+	 * @return the model for the places of a gazetteer, in its order. Its
+	 *         filter matches the start of names, through
+	 *         {@link Gazetteer#findPrefix}, so the matches come sorted by name
+	 */
+	static NameListModel of(final Gazetteer gazetteer, String prompt) {
+		return new NameListModel(prompt) {
+			int count() {
+				return gazetteer.size();
+			}
+
+			String name(int i) {
+				return gazetteer.getName(i);
+			}
+
+			int[] match(String text, int[] within) {
+				return gazetteer.findPrefix(text, gazetteer.size());
+			}
+		};
+	}
+
+	/**
+	 * The virtualize method gives a box and its popup list a fixed cell size,
+	 * measured on the prototype, so that neither measures every item
+	 * @param prototype a value as wide as most items
+	 */
+	@SuppressWarnings("unchecked") // ComboPopup.getList() is a raw JList
+	static void virtualize(JComboBox<String> box, String prototype) {
+		box.setPrototypeDisplayValue(prototype);
+		Accessible popup = box.getUI().getAccessibleChild(box, 0);
+		if (popup instanceof ComboPopup)
+			((ComboPopup) popup).getList().setPrototypeCellValue(prototype);
+	}
+
+	public int getSize() {
+		return matches == null ? 1 + pinned.length + count() : 1 + matches.length;
+	}
+
+	public String getElementAt(int i) {
+		if (i == 0)
+			return prompt;
+		if (matches != null)
+			return name(matches[i - 1]);
+		if (i <= pinned.length)
+			return pinned[i - 1];
+		return name(i - 1 - pinned.length);
+	}
+
+	public void setSelectedItem(Object item) {
+		if (item == null ? selected != null : !item.equals(selected)) {
+			selected = item;
+			fireContentsChanged(this, -1, -1);
+		}
+	}
+
+	public Object getSelectedItem() {
+		return selected;
+	}
+
+	/**
+	 * @return what the list is narrowed by, "" for nothing
+	 */
+	String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * The setFilter method narrows the list to the prompt and the names that
+	 * match text, see {@link #match}. When text only adds to the current
+	 * filter just the current matches are looked through
+	 * @param text "" to show all names
+	 */
+	void setFilter(String text) {
+		if (text.equals(filter))
+			return;
+		int[] within = filter.length() > 0 && text.startsWith(filter) ? matches : null;
+		int before = getSize();
+		filter = text;
+		matches = text.length() == 0 ? null : match(Gazetteer.normalize(text), within);
+		fireContentsChanged(this, 0, Math.max(before, getSize()) - 1);
+	}
+
+	/**
+	 * The setPinned method shows names right after the prompt, before all
+	 * names in order, where they are listed again. They aren't shown while
+	 * the list is filtered
+	 * @param names names from the list
+	 */
+	void setPinned(String[] names) {
+		int before = getSize();
+		pinned = names.clone();
+		fireContentsChanged(this, 0, Math.max(before, getSize()) - 1);
+	}
+
+	/**
+	 * The refresh method tells the list that names were added or removed
+	 */
+	void refresh() {
+		int before = getSize();
+		if (matches != null)
+			matches = match(Gazetteer.normalize(filter), null);
+		fireContentsChanged(this, 0, Math.max(before, getSize()) - 1);
+	}
+
+	/**
+	 * TypeAhead filters the NameListModel of a box by what is typed in the
+	 * box, and shows the popup with the matches and the first one selected.
+	 * Backspace takes the last char off the filter; it is cleared when the
+	 * popup closes
+	 */
+	static class TypeAhead implements JComboBox.KeySelectionManager,
+			PopupMenuListener {
+		private final JComboBox<String> box;
+		private boolean typing; // the popup is reopened for the new matches
+
+		/**
+		 * TypeAhead constructor, installs it in the box
+		 */
+		TypeAhead(JComboBox<String> box) {
+			this.box = box;
+			box.setKeySelectionManager(this);
+			box.addPopupMenuListener(this);
+		}
+
+		@SuppressWarnings("rawtypes") // the JDK's KeySelectionManager is raw
+		public int selectionForKey(char key, ComboBoxModel aModel) {
+			if (!(aModel instanceof NameListModel))
+				return -1;
+			NameListModel names = (NameListModel) aModel;
+			String text = names.getFilter();
+			if (key == '\b' && text.length() > 0)
+				text = text.substring(0, text.length() - 1);
+			else if (!Character.isISOControl(key))
+				text += key;
+			else
+				return -1;
+
+			names.setFilter(text);
+			if (box.isShowing()) {
+				// the popup keeps its size unless it is opened again
+				typing = true;
+				box.hidePopup();
+				box.showPopup();
+				typing = false;
+			}
+			return names.getSize() > 1 ? 1 : -1;
+		}
+
+		public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+		}
+
+		public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+			if (!typing && box.getModel() instanceof NameListModel)
+				((NameListModel) box.getModel()).setFilter("");
+		}
+
+		public void popupMenuCanceled(PopupMenuEvent e) {
+		}
+	}
+}
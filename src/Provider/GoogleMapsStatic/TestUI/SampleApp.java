@@ -40,6 +40,7 @@ import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
 import javax.xml.parsers.SAXParser;
@@ -49,24 +50,19 @@ import java.awt.event.*;
 import java.awt.image.*;
 import java.beans.*;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
+import java.net.URLConnection;
 import java.text.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.*;
-import jxl.Cell;
-import jxl.CellType;
-import jxl.Sheet;
-import jxl.Workbook;
-import jxl.read.biff.BiffException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SampleApp extends JFrame {
 	private static final String RAWTYPES = "rawtypes";
@@ -75,6 +71,30 @@ public class SampleApp extends JFrame {
 	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
 	/** reference to task */
 	private SimpleTask _task;
+	/** coalesces map requests and cancels superseded fetches */
+	private MapFetchScheduler _scheduler;
+	/** downloaded maps, so views that were already seen show instantly */
+	private final MapImageCache _imageCache = new MapImageCache();
+	/** this might be null. downloaded maps kept on disk between runs */
+	private MapDiskCache _diskCache;
+	/** gets maps from the caches or the network for background work */
+	private MapSource _mapSource;
+	/** fetches the likely next views into the caches */
+	private MapPrefetcher _prefetcher;
+	/** the request behind _img */
+	private volatile MapRequest _shownRequest;
+	/** this might be null. _img with its view, shifted straight away on pans */
+	private volatile MapCanvas _canvas;
+	/** this might be null. the view of the mosaic in _img, which has no canvas */
+	private volatile MapRequest _mosaicView;
+	/** true to draw the nearest waypoints over the map too, see OverlayIcon */
+	private boolean _clientMarkers;
+	/** the waypoint markers drawn over the map when _clientMarkers is on */
+	private volatile MapOverlay _overlay = MapOverlay.Empty;
+	/** this might be null. fetches low res previews when progressive mode is on */
+	private ExecutorService _progressiveExecutor;
+	/** direction of the last pan, 0 if the last move wasn't a pan */
+	private int _panDirX, _panDirY;
 	/** this might be null. holds the image to display in a popup */
 	private BufferedImage _img;
 	/** this might be null. holds the text in case image doesn't display */
@@ -111,9 +131,133 @@ public class SampleApp extends JFrame {
 			System.out.println(e);
 		}
 
+		// optional: snap centers to a pixel grid so nearby views share cache
+		// entries, eg. -Dmapsnap.grid=4
+		MapLookup.setSnapGridPixels(Integer.getInteger("mapsnap.grid", 0));
+		// optional: draw the nearest waypoints over the map as well as its
+		// center marker, with a box to hide them, eg. -Dmapoverlay=true
+		_clientMarkers = Boolean.getBoolean("mapoverlay");
+		markersCheck.setVisible(_clientMarkers);
+		_openDiskCache();
+		_mapSource = new MapSource(_imageCache, _diskCache);
+		_prefetcher = new MapPrefetcher(_mapSource);
+		_startBackgroundLoads();
+		// optional: show a small low res map first on slow links,
+		// eg. -Dmapprogressive=true
+		if (Boolean.getBoolean("mapprogressive"))
+			_progressiveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MapProgressive");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		_setupTask();
 	}
 
+	/**
+	 * The _startBackgroundLoads method reads the countries, looks up the
+	 * user's IP info and reads the waypoints at the same time, off the EDT, so
+	 * the window is usable straight away. Each part of the UI is filled in as
+	 * its load finishes; the remote calls give up after STARTUP_TIMEOUT_MS
+	 */
+	private void _startBackgroundLoads() {
+		final long start = System.currentTimeMillis();
+		ExecutorService loader = Executors.newFixedThreadPool(3,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "StartupLoader");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		loader.execute(new Runnable() {
+			public void run() {
+				try {
+					read();
+				} catch (IOException e) {
+					sout(e.getMessage());
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						// the model reads the names from the gazetteer
+						if (gazetteer != null)
+							jcbox.setModel(NameListModel.of(gazetteer, "Select a country..."));
+						sout("countries loaded after "
+								+ (System.currentTimeMillis() - start) + "ms");
+					}
+				});
+			}
+		});
+
+		loader.execute(new Runnable() {
+			public void run() {
+				String ip;
+				try {
+					getUserIP();
+					ip = userIP;
+					grabUserInfo();
+				} catch (IOException e) {
+					sout(e.getMessage());
+					ip = "Cannot get IP";
+				}
+				final String text = ip;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						ipText.setText(text);
+						fillTable();
+						sout("IP info loaded after "
+								+ (System.currentTimeMillis() - start) + "ms");
+					}
+				});
+			}
+		});
+
+		loader.execute(new Runnable() {
+			public void run() {
+				try {
+					_waypoints.load();
+				} catch (IOException e) {
+					sout("couldn't read waypoints - " + e.getMessage());
+					return;
+				}
+				if (_waypoints.getSkipped() > 0)
+					sout("skipped " + _waypoints.getSkipped()
+							+ " unreadable lines of waypoints");
+				_waypoints.buildIndex();
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						fillWPBox();
+						importWP.setEnabled(true);
+						exportWP.setEnabled(true);
+						sout("waypoints loaded after "
+								+ (System.currentTimeMillis() - start) + "ms");
+					}
+				});
+			}
+		});
+
+		// the threads finish their jobs and then exit
+		loader.shutdown();
+	}
+
+	/**
+	 * The _openDiskCache method opens the on-disk map cache in the directory
+	 * named by the mapcache.dir system property (./mapcache by default). The app
+	 * still works without it if it can't be opened
+	 */
+	private void _openDiskCache() {
+		File dir = new File(System.getProperty("mapcache.dir", "mapcache"));
+		try {
+			_diskCache = new MapDiskCache(dir);
+			sout("opened map disk cache in " + dir.getAbsolutePath() + " - "
+					+ _diskCache);
+		} catch (IOException e) {
+			sout("map disk cache disabled - " + e.getMessage());
+		}
+	}
+
 	/**
 	 * create a test task and wire it up with a task handler that dumps output
 	 * to the textarea
@@ -127,24 +271,127 @@ public class SampleApp extends JFrame {
 
 				_initHook(hook);
 
-				String uri = MapLookup.getMap(
-						Double.parseDouble(ttfLat.getText()),
-						Double.parseDouble(ttfLon.getText()),
-						Integer.parseInt(ttfSizeW.getText()),
-						Integer.parseInt(ttfSizeH.getText()),
-						Integer.parseInt(ttfZoom.getText()));
+				// remember which request this fetch is serving
+				long generation = _scheduler.currentGeneration();
+
+				double lat = Double.parseDouble(ttfLat.getText());
+				double lon = Double.parseDouble(ttfLon.getText());
+				int sizeW = Integer.parseInt(ttfSizeW.getText());
+				int sizeH = Integer.parseInt(ttfSizeH.getText());
+				int zoom = Integer.parseInt(ttfZoom.getText());
+
+				// too big for one request, stitch it together from tiles. the
+				// scheduler aborts the tile downloads when a newer view is asked
+				// for, and tiles that haven't started are skipped
+				if (sizeW > MapLookup.SizeMax || sizeH > MapLookup.SizeMax) {
+					MapMosaic.Result mosaic = new MapMosaic(_mapSource).render(
+							lat, lon, sizeW, sizeH, zoom, _mosaicControl(generation));
+					if (mosaic != null)
+						sout(mosaic.getReport());
+					if (mosaic == null || !_scheduler.isCurrent(generation)) {
+						sout("discarding superseded map");
+						return null;
+					}
+					_img = mosaic.getImage();
+					_mosaicView = new MapRequest(lat, lon, sizeW, sizeH, zoom, false, false);
+					_shownRequest = null;
+					_canvas = null;
+					return new ByteBuffer();
+				}
+
+				MapRequest request = _mapRequest(lat, lon, sizeW, sizeH, zoom);
+
+				// a view that was already seen needs no download, and no decode
+				// either if it is still in memory
+				MapImageCache.Entry cached = _mapSource.getCached(request);
+				if (cached != null) {
+					sout("map found in cache - " + _imageCache);
+					_show(request, cached.getImage());
+					return new ByteBuffer(cached.getData());
+				}
+
+				// after a pan only the strip the old map doesn't cover is needed.
+				// a map with a marker drawn by the server would have it in the
+				// old place, but _mapRequest asks for maps without one
+				MapCanvas canvas = _canvas;
+				MapRequest strip = canvas != null && !request.hasCenterMarker()
+						&& canvas.getView().equals(request)
+						? canvas.getMissingStrip() : null;
+				if (strip != null) {
+					sout("fetching the uncovered strip only - " + strip);
+					MapImageCache.Entry e = _mapSource.getCached(strip);
+					if (e == null) {
+						GetMethod get = new GetMethod(strip.getURI());
+						_scheduler.register(get);
+						try {
+							e = _mapSource.download(strip, get);
+						} finally {
+							_scheduler.release(get);
+						}
+					}
+					if (!_scheduler.isCurrent(generation)) {
+						sout("discarding superseded map");
+						return null;
+					}
+					if (e != null) {
+						canvas = canvas.fill(e.getImage());
+						_img = canvas.getImage();
+						_shownRequest = request;
+						_canvas = canvas;
+						return new ByteBuffer(e.getData());
+					}
+					sout("couldn't get the strip, fetching the whole map");
+				}
+
+				// progressive mode: a low res map of the same area is fetched
+				// alongside and shown scaled up until the full map is in
+				long start = System.currentTimeMillis();
+				Future<Void> lowRes = null;
+				AtomicLong firstPixels = new AtomicLong(-1);
+				if (_progressiveExecutor != null) {
+					MapRequest low = request.lowRes(PROGRESSIVE_SIZE);
+					if (low != null)
+						lowRes = _progressiveExecutor.submit(_lowResFetch(
+								request, low, generation, start, firstPixels));
+				}
+
+				String uri = request.getURI();
 				sout("Google Maps URI=" + uri);
+				MapLookup.checkURI(uri);
 
-				// get the map from Google
+				// get the map from Google, reusing a pooled keep-alive connection
 				GetMethod get = new GetMethod(uri);
-				new HttpClient().executeMethod(get);
+				ByteBuffer data;
+				_scheduler.register(get);
+				try {
+					MapHttpClient.getClient().executeMethod(get);
+					data = HttpUtils.getMonitoredResponse(hook, get);
+				} finally {
+					_scheduler.release(get);
+					get.releaseConnection();
+				}
 
-				ByteBuffer data = HttpUtils.getMonitoredResponse(hook, get);
+				// a newer view was asked for while this one was downloading
+				if (!_scheduler.isCurrent(generation)) {
+					sout("discarding superseded map");
+					return null;
+				}
 
 				try {
-					_img = ImageUtils.toCompatibleImage(ImageIO.read(data
-							.getInputStream()));
+					_show(request, ImageUtils.toCompatibleImage(ImageIO.read(data
+							.getInputStream())));
 					sout("converted downloaded data to image...");
+					_reportProgressive(lowRes, firstPixels.get(),
+							System.currentTimeMillis() - start);
+					_imageCache.put(request, data.getBytes(), _img);
+					sout(_imageCache.toString());
+					if (_diskCache != null) {
+						try {
+							_diskCache.put(request, data.getBytes());
+						} catch (IOException e) {
+							sout("couldn't save map to disk cache - " + e.getMessage());
+						}
+					}
 				} catch (Exception e) {
 					_img = null;
 					sout("The URI is not an image. Data is downloaded, can't display it as an image.");
@@ -163,6 +410,13 @@ public class SampleApp extends JFrame {
 		_task = new SimpleTask(new TaskManager(), functor, "HTTP GET Task",
 				"Download an image from a URL", AutoShutdownSignals.Daemon);
 
+		_scheduler = new MapFetchScheduler(_task,
+				MapFetchScheduler.DEBOUNCE_DEFAULT, new MapFetchScheduler.ErrorHandler() {
+					public void taskError(TaskException e) {
+						sout(e.getMessage());
+					}
+				});
+
 		_task.addStatusListener(new PropertyChangeListener() {
 			public void propertyChange(PropertyChangeEvent evt) {
 				sout(":: task status change - "
@@ -204,8 +458,15 @@ public class SampleApp extends JFrame {
 			public void ok(ByteBuffer value, long time, AbstractTask task) {
 				sout(":: taskHandler [" + task.getName() + "]- ok - size="
 						+ (value == null ? "null" : value.toString()));
+				if (value == null) // superseded, a newer fetch is coming
+					return;
+				showNearestCountry();
+				showWaypointsNearby();
 				if (_img != null) {
 					_displayImgInFrame();
+					// get the likely next views while the user looks at this one
+					if (_shownRequest != null)
+						_prefetcher.prefetch(_shownRequest, _panDirX, _panDirY);
 				} else
 					_displayRespStrInFrame();
 
@@ -224,6 +485,117 @@ public class SampleApp extends JFrame {
 		});
 	}
 
+	/**
+	 * The _lowResFetch method makes the job that gets the low res version of a
+	 * request and, unless the full map got there first, shows it scaled up
+	 * @param request the view being fetched
+	 * @param low the same area at a lower zoom, see {@link MapRequest#lowRes}
+	 * @param generation the fetch the preview belongs to
+	 * @param start when the fetch started
+	 * @param firstPixels set to the time to the first pixels in ms once the
+	 *        preview is on screen, left alone if it never is
+	 * @return the job
+	 */
+	private Callable<Void> _lowResFetch(final MapRequest request,
+			final MapRequest low, final long generation, final long start,
+			final AtomicLong firstPixels) {
+		return new Callable<Void>() {
+			public Void call() throws IOException {
+				MapImageCache.Entry e = _mapSource.get(low);
+				if (e == null || !_scheduler.isCurrent(generation))
+					return null;
+
+				final MapCanvas preview = MapCanvas.preview(request,
+						Collections.singletonList(new MapCanvas(low, e.getImage())));
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						MapCanvas canvas = _canvas;
+						if (!_scheduler.isCurrent(generation) || (canvas != null
+								&& canvas.isComplete() && canvas.getView().equals(request)))
+							return;
+						_canvas = preview;
+						_img = preview.getImage();
+						_displayImgInFrame();
+						firstPixels.set(System.currentTimeMillis() - start);
+					}
+				});
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * The _mosaicControl method makes the control that stops a mosaic once a
+	 * newer view is asked for: its tile GETs are registered with the scheduler,
+	 * which aborts them, and tiles not started yet are skipped
+	 * @param generation the fetch the mosaic belongs to
+	 * @return the control
+	 */
+	private MapMosaic.Control _mosaicControl(final long generation) {
+		return new MapMosaic.Control() {
+			public boolean isCancelled() {
+				return !_scheduler.isCurrent(generation);
+			}
+
+			public void started(GetMethod get) {
+				_scheduler.register(get);
+			}
+
+			public void finished(GetMethod get) {
+				_scheduler.release(get);
+			}
+		};
+	}
+
+	/**
+	 * The _reportProgressive method logs how long the low res preview and the
+	 * full map took, so progressive mode can be compared with the plain fetch.
+	 * A preview that was dropped, because the full map or a newer view won,
+	 * gives no time to first pixels
+	 * @param lowRes the low res job, null if there was none
+	 * @param firstPixels ms until the preview was shown, -1 if it wasn't
+	 * @param full ms until the full map was decoded
+	 */
+	private void _reportProgressive(Future<Void> lowRes, long firstPixels,
+			long full) {
+		if (lowRes == null) {
+			sout("time to full map " + full + "ms");
+			return;
+		}
+		if (lowRes.isDone()) {
+			try {
+				lowRes.get();
+			} catch (Exception e) {
+				sout("low res preview failed - " + e.getMessage());
+			}
+		}
+		sout("time to first pixels "
+				+ (firstPixels < 0 ? "- (full map came first)" : firstPixels + "ms")
+				+ ", time to full map " + full + "ms");
+	}
+
+	/**
+	 * The _show method makes the given map the one to display
+	 * @param request the view the image shows
+	 * @param img complete map image for the view
+	 */
+	private void _show(MapRequest request, BufferedImage img) {
+		_img = img;
+		_shownRequest = request;
+		_canvas = new MapCanvas(request, img);
+	}
+
+	/**
+	 * The _mapRequest method makes the request for a view of the map. Maps are
+	 * fetched without markers and the center marker is drawn by OverlayIcon,
+	 * so after a pan the shifted map has no stale marker and only the
+	 * uncovered strip needs fetching
+	 */
+	private MapRequest _mapRequest(double lat, double lon, int sizeW,
+			int sizeH, int zoom) {
+		return new MapRequest(lat, lon, sizeW, sizeH, zoom, false, true);
+	}
+
 	private SwingUIHookAdapter _initHook(SwingUIHookAdapter hook) {
 		hook.enableRecieveStatusNotification(checkboxRecvStatus.isSelected());
 		hook.enableSendStatusNotification(checkboxSendStatus.isSelected());
@@ -261,7 +633,10 @@ public class SampleApp extends JFrame {
 		GUIUtils.setAppIcon(frame, "71.png");
 		frame.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
 
-		JLabel imgLbl = new JLabel(new ImageIcon(_img));
+		MapCanvas canvas = _canvas;
+		MapRequest view = canvas != null ? canvas.getView() : _mosaicView;
+		JLabel imgLbl = new JLabel(view != null ? new OverlayIcon(_img, view)
+				: new ImageIcon(_img));
 		imgLbl.setToolTipText(MessageFormat.format(
 				"<html>Image downloaded from URI<br>size: w={0}, h={1}</html>",
 				_img.getWidth(), _img.getHeight()));
@@ -350,12 +725,15 @@ public class SampleApp extends JFrame {
 		}
 	}
 
+	/**
+	 * The startTaskAction method asks for the map in the input fields to be
+	 * fetched. Bursts of calls (slider drags, repeated pans) are coalesced and
+	 * only the latest view is downloaded
+	 * @see MapFetchScheduler
+	 */
 	private void startTaskAction() {
-		try {
-			_task.execute();
-		} catch (TaskException e) {
-			sout(e.getMessage());
-		}
+		_prefetcher.cancel();
+		_scheduler.request();
 	}
 
 	public SampleApp() throws IOException {
@@ -364,69 +742,113 @@ public class SampleApp extends JFrame {
 	}
 
 	private void quitProgram() {
+		_scheduler.shutdown();
+		_prefetcher.shutdown();
+		if (_progressiveExecutor != null)
+			_progressiveExecutor.shutdownNow();
 		_task.shutdown();
+		MapHttpClient.shutdown();
+		try {
+			_waypoints.close();
+		} catch (IOException e) {
+			sout(e.getMessage());
+		}
+		if (_diskCache != null) {
+			try {
+				_diskCache.close();
+			} catch (IOException e) {
+				sout(e.getMessage());
+			}
+		}
 		System.exit(0);
 	}
 
-	/** 
-	 * The findLocation method finds the longitude and latitude
-	 * of the country name passed into it.
-	 * @param name - the name of the country
-	 * @return an Object ArrayList that contains the country, longitude,and 
-	 * latitude
+	/**
+	 * The showNearestCountry method shows which country's center is closest
+	 * to the map center in the input fields. It only looks at the gazetteer,
+	 * so it is cheap enough to run after every pan
+	 * @see Gazetteer#nearest(double, double)
 	 */
-	private ArrayList<Object> findLocation(String name) {
-		ArrayList<String> temp = new ArrayList<String>();
-		ArrayList<Object> rc = new ArrayList<Object>();
-		Collections.addAll(temp, countries);
-		int index = temp.indexOf(name);
-		// System.out.println(index);
-		rc.add(name);
-		for (int i = 0; i < 2; i++) {
-			rc.add(location[index][i]);
+	private void showNearestCountry() {
+		if (gazetteer == null)
+			return;
+		double lat, lon;
+		try {
+			lat = Double.parseDouble(ttfLat.getText());
+			lon = Double.parseDouble(ttfLon.getText());
+		} catch (NumberFormatException e) {
+			return;
+		}
+		int i = gazetteer.nearest(lat, lon);
+		if (i < 0)
+			return;
+		double km = GeoIndex.distanceKm(lat, lon, gazetteer.getLat(i),
+				gazetteer.getLon(i));
+		nearestLabel.setText(String.format("Nearest country: %s (%.0f km)",
+				gazetteer.getName(i), km));
+	}
+
+	/**
+	 * The showWaypointsNearby method counts the saved waypoints on the map
+	 * shown and lists the ones closest to its center at the top of the
+	 * waypoint box. Both go through the store's spatial index
+	 * @see WaypointStore#inBox
+	 * @see WaypointStore#nearest
+	 */
+	private void showWaypointsNearby() {
+		MapRequest shown = _shownRequest;
+		if (shown == null || !(wayPointsBox.getModel() instanceof NameListModel))
+			return;
+		double[] b = shown.getBounds();
+		int inView = _waypoints.countInBox(b[0], b[1], b[2], b[3],
+				WAYPOINTS_IN_VIEW_MAX + 1);
+		double[] km = new double[WAYPOINTS_NEARBY];
+		String[] nearest = _waypoints.nearest(shown.getLat(), shown.getLon(),
+				WAYPOINTS_NEARBY, km);
+		((NameListModel) wayPointsBox.getModel()).setPinned(nearest);
+		if (_clientMarkers) {
+			// the nearest waypoints, labelled in the order they are listed
+			MapMarker[] markers = new MapMarker[nearest.length];
+			for (int i = 0; i < nearest.length; i++) {
+				Waypoint wp = _waypoints.get(nearest[i]);
+				markers[i] = new MapMarker(wp.getLat(), wp.getLong(),
+						MapMarker.MarkerColor.blue, (char) ('a' + i));
+			}
+			_overlay = new MapOverlay(markers);
+			mPanel1.repaint();
 		}
-		return rc;
+		if (nearest.length == 0)
+			waypointsLabel.setText(" ");
+		else
+			waypointsLabel.setText(String.format("Waypoints in view: %s, nearest: %s (%.1f km)",
+					inView > WAYPOINTS_IN_VIEW_MAX ? "over " + WAYPOINTS_IN_VIEW_MAX
+							: Integer.toString(inView), nearest[0], km[0]));
 	}
 
 	/** 
-	 * The read method reads from an excel file and grabs the countries and its
-	 * longitudes and latitudes and places them in two separate parallel arrays
-	 * @throws IOException occurs when file that contains data cannot be opened
+	 * The read method loads the countries and their latitudes and longitudes
+	 * into the gazetteer. They come from Countries.gaz, which
+	 * Gazetteer compiles from Countries.xls; the spreadsheet itself is only
+	 * read if the compiled file is missing or broken
+	 * @throws IOException occurs when neither file can be read
+	 * @see Gazetteer#main
 	 */
 	private void read() throws IOException {
-		Workbook w;
+		Gazetteer gaz;
 		try {
-			w = Workbook.getWorkbook(SampleApp.class
-					.getResourceAsStream("Countries.xls"));
-			Sheet sheet = w.getSheet(0);
-			countries = new String[sheet.getRows()];
-			location = new double[sheet.getRows()][2];
-			for (int j = 0; j < sheet.getRows(); j++) {
-				for (int i = 0; i < sheet.getColumns(); i++) {
-					if (i == 0 || i == 4 || i == 5) {
-						Cell cell = sheet.getCell(i, j);
-						if (cell.getType() == CellType.LABEL) {
-							countries[j] = cell.getContents();
-						}
-						if (cell.getType() == CellType.NUMBER) {
-							switch (i) {
-							case 4:
-								location[j][0] = Double.parseDouble(cell
-										.getContents());
-								break;
-							case 5:
-								location[j][1] = Double.parseDouble(cell
-										.getContents());
-								break;
-							}
-						}
-					}
-
-				}
+			gaz = Gazetteer.open(SampleApp.class.getResource("Countries.gaz"));
+		} catch (IOException e) {
+			sout("reading Countries.xls instead - " + e.getMessage());
+			InputStream xls = SampleApp.class.getResourceAsStream("Countries.xls");
+			if (xls == null)
+				throw new FileNotFoundException("Countries.xls");
+			try {
+				gaz = Gazetteer.fromXls(xls);
+			} finally {
+				xls.close();
 			}
-		} catch (BiffException e) {
-			sout(e.getMessage());
 		}
+		gazetteer = gaz;
 	}
 
 	/**
@@ -439,9 +861,26 @@ public class SampleApp extends JFrame {
 		URL whatismyip = new URL(
 				"http://automation.whatismyip.com/n09230945.asp");
 		BufferedReader in = new BufferedReader(new InputStreamReader(
-				whatismyip.openStream()));
+				openWithTimeout(whatismyip)));
+		try {
+			userIP = in.readLine(); // you get the IP as a String
+		} finally {
+			in.close();
+		}
+	}
 
-		userIP = in.readLine(); // you get the IP as a String
+	/**
+	 * The openWithTimeout method opens a URL so that a slow or dead server
+	 * fails after STARTUP_TIMEOUT_MS instead of hanging the caller
+	 * @param url the URL to read
+	 * @return the stream of the response
+	 * @throws IOException when the server can't be reached in time
+	 */
+	private static InputStream openWithTimeout(URL url) throws IOException {
+		URLConnection conn = url.openConnection();
+		conn.setConnectTimeout(STARTUP_TIMEOUT_MS);
+		conn.setReadTimeout(STARTUP_TIMEOUT_MS);
+		return conn.getInputStream();
 	}
 
 	/**
@@ -561,10 +1000,14 @@ public class SampleApp extends JFrame {
 			URL grabXML = new URL(
 					"http://api.ipinfodb.com/v3/ip-city/?key=318f09d6d747b1272ef328b9853777dff1b13bb62be43421641500b3ead3d22a&ip="
 							+ userIP + "&format=xml");
-			Reader in = new InputStreamReader(grabXML.openStream(), "UTF-8");
-			InputSource is = new InputSource(in);
-			is.setEncoding("UTF-8");
-			saxParser.parse(is, handler);
+			Reader in = new InputStreamReader(openWithTimeout(grabXML), "UTF-8");
+			try {
+				InputSource is = new InputSource(in);
+				is.setEncoding("UTF-8");
+				saxParser.parse(is, handler);
+			} finally {
+				in.close();
+			}
 		} catch (Exception e) {
 			sout(e.getMessage());
 		}
@@ -599,9 +1042,6 @@ public class SampleApp extends JFrame {
 	 * @see RowHeaderRenderer
 	 */
 	private void createTable() {
-		// Grabs the data that will be used to fill the columns
-		grabUserInfo();
-		
 		// A listmodel that contains the row headers
 		ListModel lm = new AbstractListModel() {
 			String headers[] = { "Country Code: ", "Country Name: ",
@@ -628,13 +1068,6 @@ public class SampleApp extends JFrame {
 		table.getColumnModel().getColumn(0)
 				.setHeaderValue("IP Relevant Data Found");
 		
-		// Places the user's info into the table
-		if (userInfo != null) {
-			for (int i = 0; i < userInfo.size(); i++) {
-				dm.setValueAt(userInfo.get(i), i, 0);
-			}
-		}
-
 		list = new JList(lm);
 		list.setFixedCellWidth(100);
 		list.setFixedCellHeight(table.getRowHeight() + table.getRowMargin()
@@ -648,56 +1081,85 @@ public class SampleApp extends JFrame {
 	}
 
 	/**
-	 * The readWPFile method reads the waypoints.txt file made by the app and
-	 * places them into an arraylist.
-	 * It is always located in the current directory
-	 * @throws IOException when file cannot be created
-	 * @see <a href="http://www.roseindia.net/java/beginners/java-read-file-line-by-line.shtml">Read files</a>
+	 * The fillTable method places the user's info into the table once
+	 * grabUserInfo has it. Must be called in the EDT
 	 */
-	private void readWPFile() throws IOException {
-		wps = new ArrayList<Waypoint>();
-		String strLine;
-		try {
-			fstream = new FileInputStream("waypoints.txt");
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			while ((strLine = br.readLine()) != null) {
-				String temp[] = strLine.split(";");
-				wps.add(new Waypoint(temp[0], temp[1], temp[2]));
-			}
-		} catch (Exception ex) {
-			createWPFile();
-			sout("Created a new waypoints.txt file");
+	private void fillTable() {
+		if (userInfo == null)
+			return;
+		DefaultTableModel dm = (DefaultTableModel) table.getModel();
+		for (int i = 0; i < userInfo.size() && i < dm.getRowCount(); i++) {
+			dm.setValueAt(userInfo.get(i), i, 0);
 		}
 	}
 
 	/**
-	 * The createWPFile method creates a new file called waypoints.txt.
-	 * Would only be called if it doesn't exist already
-	 * @throws IOException 
-	 * @see readWPFile
+	 * The fillWPBox method shows the saved waypoints in the JComboBox, whose
+	 * model reads them from the store, and is called again whenever
+	 * waypoints are added or removed. Must be called in the EDT
 	 */
-	private void createWPFile() throws IOException {
-		wptext = new File("waypoints.txt");
-		if (!wptext.exists()){
-			wptext.createNewFile();
-		}
+	private void fillWPBox() {
+		if (wayPointsBox.getModel() instanceof NameListModel)
+			((NameListModel) wayPointsBox.getModel()).refresh();
+		else
+			wayPointsBox.setModel(NameListModel.of(_waypoints, "Waypoints..."));
 	}
 
 	/**
-	 * The initWP method initializes the JComboBox that includes all the waypoints
-	 * read from the .txt file.
-	 * @throws IOException when reading the waypoints file cannot be executed
-	 * @see readWPFile
+	 * The transferWaypoints method asks for a .csv, .geojson or .gpx file and
+	 * imports the waypoints in it, or exports all waypoints to it, on a
+	 * background thread. The counts are shown when it is done
+	 * @param importing true to import, false to export
 	 */
-	private void initWP() throws IOException {
-		wayPointsBox.removeAllItems();
-		readWPFile();
-		for (int i = 0; i < wps.size(); i++) {
-			wayPointsBox.addItem(wps.get(i).getName());
+	private void transferWaypoints(final boolean importing) {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter(
+				"Waypoints (.csv, .geojson, .gpx)", "csv", "geojson", "json", "gpx"));
+		int returnValue = importing ? chooser.showOpenDialog(this)
+				: chooser.showSaveDialog(this);
+		if (returnValue != JFileChooser.APPROVE_OPTION)
+			return;
+		final File file = chooser.getSelectedFile();
+		try {
+			WaypointTransfer.Format.forFile(file);
+		} catch (IllegalArgumentException e) {
+			JOptionPane.showMessageDialog(null, e.getMessage(), "Error!",
+					JOptionPane.INFORMATION_MESSAGE);
+			return;
 		}
-		wayPointsBox.insertItemAt("Waypoints...", 0);
-		wayPointsBox.setSelectedIndex(0);
+
+		importWP.setEnabled(false);
+		exportWP.setEnabled(false);
+		Thread transfer = new Thread(new Runnable() {
+			public void run() {
+				String message;
+				try {
+					WaypointTransfer.Result result = importing
+							? WaypointTransfer.importFile(file, _waypoints)
+							: WaypointTransfer.exportFile(_waypoints, file);
+					message = (importing ? "Imported " : "Exported ")
+							+ file.getName() + ": " + result;
+				} catch (IOException e) {
+					message = "Couldn't " + (importing ? "import " : "export ")
+							+ file.getName() + " - " + e.getMessage();
+				}
+				sout(message);
+				final String text = message;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (importing)
+							fillWPBox();
+						importWP.setEnabled(true);
+						exportWP.setEnabled(true);
+						JOptionPane.showMessageDialog(null, text,
+								importing ? "Import" : "Export",
+								JOptionPane.INFORMATION_MESSAGE);
+					}
+				});
+			}
+		}, "WaypointTransfer");
+		transfer.setDaemon(true);
+		transfer.start();
 	}
 
 	/**
@@ -722,9 +1184,10 @@ public class SampleApp extends JFrame {
 		mPanel1 = new JPanel();
 		mapOptions = new JPanel();
 		jcbox = new JComboBox<String>();
-		loc = new ArrayList<Object>();
 		save = new JButton();
 		saveWP = new JButton("Save Waypoint");
+		importWP = new JButton("Import Waypoints...");
+		exportWP = new JButton("Export Waypoints...");
 		WPPanel = new JPanel();
 		nameText = new JTextField();
 		nameLabel = new JLabel();
@@ -735,6 +1198,9 @@ public class SampleApp extends JFrame {
 		panning = new JPanel();
 		wayPointsBox = new JComboBox<String>();
 		ipLabel = new JLabel();
+		nearestLabel = new JLabel(" ");
+		waypointsLabel = new JLabel(" ");
+		markersCheck = new JCheckBox("Show markers", true);
 		ipText = new JTextField();
 		userIP = new String();
 		panel1 = new JPanel();
@@ -762,14 +1228,15 @@ public class SampleApp extends JFrame {
 		progressBar = new JProgressBar();
 		lblProgressStatus = new JLabel();
 
-		try {
-			this.read();
-		} catch (IOException e) {
-			sout(e.getMessage());
-		}
-
 		// ======== this ========
-		setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+		setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				// the same as Quit, so queued waypoint saves are written
+				quitProgram();
+			}
+		});
 		setTitle("Google Static Maps");
 		setIconImage(null);
 		Container contentPane = getContentPane();
@@ -821,18 +1288,13 @@ public class SampleApp extends JFrame {
 							"Map Options"), Borders.DLU2_BORDER));
 					mapOptions.setLayout(new BorderLayout());
 
-					try {
-						getUserIP();
-						ipText.setText(userIP);
-					} catch (IOException ex) {
-						sout(ex.getMessage());
-						ipText.setText("Cannot get IP");
-					}
+					ipText.setText("Looking up IP...");
 					
 					// ======== Boxes ========
 					Box IPBox = Box.createHorizontalBox(), InfoBox = Box
 							.createHorizontalBox(), NameBox = Box
 							.createHorizontalBox(), WPBox = Box
+							.createHorizontalBox(), TransferBox = Box
 							.createHorizontalBox(), PanningBox = Box
 							.createHorizontalBox(), zoomBox = Box
 							.createHorizontalBox(), verticalBox = Box
@@ -863,46 +1325,68 @@ public class SampleApp extends JFrame {
 							{ TableLayout.FILL }
 
 					}));
-					readWPFile();
-					initWP();
+					wayPointsBox.addItem("Loading waypoints...");
+					NameListModel.virtualize(wayPointsBox, NAME_PROTOTYPE);
+					new NameListModel.TypeAhead(wayPointsBox);
 					wayPointsBox.addActionListener(new ActionListener() {
 						public void actionPerformed(ActionEvent e) {
 							JComboBox cb = (JComboBox) e.getSource();
 							String temp = (String) cb.getSelectedItem();
 							if (wayPointsBox.getSelectedIndex() > 0) {
-
-								for (Waypoint i : wps) {
-									if (temp.equals(i.getName())) {
-										ttfLat.setText(i.getLat());
-										ttfLon.setText(i.getLong());
-									}
+								Waypoint wp = _waypoints.get(temp);
+								if (wp != null) {
+									ttfLat.setText(Waypoint.formatCoordinate(wp.getLat()));
+									ttfLon.setText(Waypoint.formatCoordinate(wp.getLong()));
 								}
 							}
 						}
 					});
+					wayPointsBox.setToolTipText("Press Delete to remove the selected waypoint");
+					wayPointsBox.addKeyListener(new KeyAdapter() {
+						public void keyPressed(KeyEvent e) {
+							int i = wayPointsBox.getSelectedIndex();
+							if (e.getKeyCode() != KeyEvent.VK_DELETE || i <= 0)
+								return;
+							String name = (String) wayPointsBox.getSelectedItem();
+							if (JOptionPane.showConfirmDialog(null, "Delete waypoint "
+									+ name + "?", "Delete", JOptionPane.YES_NO_OPTION)
+									!= JOptionPane.YES_OPTION)
+								return;
+							try {
+								if (_waypoints.remove(name)) {
+									wayPointsBox.setSelectedIndex(0);
+									fillWPBox();
+									showWaypointsNearby();
+								}
+							} catch (IOException ex) {
+								sout(ex.getMessage());
+							}
+						}
+					});
 					saveWP.setMnemonic('W');
 					saveWP.addActionListener(new ActionListener() {
 						public void actionPerformed(ActionEvent e) {
 							String name = new String(nameText.getText().trim());
 							String lon = new String(ttfLon.getText().trim());
 							String lat = new String(ttfLat.getText().trim());
-							// from:
-							// http://www.codingforums.com/showthread.php?t=108925
 							try {
-								if (!name.isEmpty()) {
-									BufferedWriter fileOut = new BufferedWriter(
-											new FileWriter("waypoints.txt",
-													true));
-									fileOut.append(name + ";" + lon + ";" + lat
-											+ "\n");
-									fileOut.close();
-									nameText.setText(null);
-									initWP();
-								} else {
+								if (name.isEmpty()) {
 									JOptionPane.showMessageDialog(null,
 											"Enter a name...", "Error!",
 											JOptionPane.INFORMATION_MESSAGE);
+								} else if (!_waypoints.add(Waypoint.parse(name, lat, lon))) {
+									JOptionPane.showMessageDialog(null,
+											"There already is a waypoint called " + name,
+											"Error!", JOptionPane.INFORMATION_MESSAGE);
+								} else {
+									nameText.setText(null);
+									fillWPBox();
+									showWaypointsNearby();
 								}
+							} catch (IllegalArgumentException ex) {
+								JOptionPane.showMessageDialog(null,
+										ex.getMessage(), "Error!",
+										JOptionPane.INFORMATION_MESSAGE);
 							} catch (IOException ex) {
 								sout(ex.getMessage());
 							}
@@ -913,6 +1397,24 @@ public class SampleApp extends JFrame {
 					WPBox.add(WPPanel);
 					WPBox.setMaximumSize(new Dimension(300, 25));
 
+					// ======== TransferBox ========
+					// enabled once the waypoints are loaded
+					importWP.setEnabled(false);
+					importWP.addActionListener(new ActionListener() {
+						public void actionPerformed(ActionEvent e) {
+							transferWaypoints(true);
+						}
+					});
+					exportWP.setEnabled(false);
+					exportWP.addActionListener(new ActionListener() {
+						public void actionPerformed(ActionEvent e) {
+							transferWaypoints(false);
+						}
+					});
+					TransferBox.add(importWP);
+					TransferBox.add(Box.createHorizontalStrut(5));
+					TransferBox.add(exportWP);
+
 					// ======== PanningBox ========
 					panning.setLayout(new TableLayout(new double[][] {
 							{ TableLayout.FILL, TableLayout.FILL,
@@ -949,7 +1451,9 @@ public class SampleApp extends JFrame {
 					zoomSlider.addChangeListener(new ChangeListener() {
 						public void stateChanged(ChangeEvent e) {
 							int zoom = ((JSlider) e.getSource()).getValue();
+							_panDirX = _panDirY = 0;
 							ttfZoom.setText(String.format("%d", zoom));
+							zoomPreview(zoom);
 							startTaskAction();
 						}
 					});
@@ -978,9 +1482,22 @@ public class SampleApp extends JFrame {
 					verticalBox.add(Box.createVerticalStrut(10));
 					verticalBox.add(WPBox);
 					verticalBox.add(Box.createVerticalStrut(5));
+					verticalBox.add(TransferBox);
+					verticalBox.add(Box.createVerticalStrut(5));
 					verticalBox.add(PanningBox);
 					verticalBox.add(Box.createVerticalStrut(10));
 					verticalBox.add(zoomBox);
+					verticalBox.add(Box.createVerticalStrut(5));
+					verticalBox.add(nearestLabel);
+					verticalBox.add(waypointsLabel);
+					// drawn on the client, so toggling them is just a repaint
+					markersCheck.setOpaque(false);
+					markersCheck.addActionListener(new ActionListener() {
+						public void actionPerformed(ActionEvent e) {
+							mPanel1.repaint();
+						}
+					});
+					verticalBox.add(markersCheck);
 
 					mapOptions.add(verticalBox, BorderLayout.CENTER);
 
@@ -1018,7 +1535,9 @@ public class SampleApp extends JFrame {
 					btnGetMap.setMnemonic('G');
 					btnGetMap.addActionListener(new ActionListener() {
 						public void actionPerformed(ActionEvent e) {
-							startTaskAction();
+							_panDirX = _panDirY = 0;
+							_prefetcher.cancel();
+							_scheduler.requestNow();
 						}
 					});
 					panel1.add(btnGetMap, new TableLayoutConstraints(5, 0, 5,
@@ -1103,21 +1622,21 @@ public class SampleApp extends JFrame {
 							TableLayoutConstraints.FULL));
 					
 					// ---- jcbox ----
-					for (String s : countries) {
-						jcbox.addItem(s);
-					}
-					jcbox.setSelectedIndex(0);
-					jcbox.insertItemAt("Select a country...", 0);
-					jcbox.removeItemAt(1);
+					// filled in by _startBackgroundLoads
+					jcbox.addItem("Loading countries...");
+					NameListModel.virtualize(jcbox, NAME_PROTOTYPE);
+					new NameListModel.TypeAhead(jcbox);
 					jcbox.setToolTipText("Enter your own URI for a file to download in the background");
 					jcbox.addActionListener(new ActionListener() {
 						public void actionPerformed(ActionEvent e) {
 							if (jcbox.getSelectedIndex() > 0) {
 								JComboBox<String> cb = (JComboBox<String>)e.getSource();
 								String country = (String) cb.getSelectedItem();
-								loc = findLocation(country);
-								ttfLat.setText(((Double) loc.get(1)).toString());
-								ttfLon.setText(((Double) loc.get(2)).toString());
+								int i = gazetteer.indexOf(country);
+								if (i >= 0) {
+									ttfLat.setText(Double.toString(gazetteer.getLat(i)));
+									ttfLon.setText(Double.toString(gazetteer.getLon(i)));
+								}
 							}
 						}
 					});
@@ -1257,75 +1776,105 @@ public class SampleApp extends JFrame {
 	}
 
 	/**
-	 * Class Waypoint is used as a container for the country name,
-	 * longitude and latitude. I created it because HashMaps and Maps
-	 * would make the code more complex than it needs to be
-	 * @author Neil Brian Guzman
+	 * The pan method moves the center in the input fields one pan step
+	 * @param dirX -1 to pan left, 1 to pan right, 0 to stay
+	 * @param dirY -1 to pan down, 1 to pan up, 0 to stay
+	 * @see MapLookup#panCenter
 	 */
-	class Waypoint {
-		private String name; // stores the name
-		private String lon;  // stores the longitude
-		private String lat;  // stores the latitude
-		
-		/**
-		 * Initializes the country name, longitude, and latitude if passed in as empty
-		 */
-		Waypoint() {
-			this(null, null, null);
-		}
-		
-		/**
-		 * Waypoint constructor initializes the country name, longitude, and latitude
-		 * @param s name of country
-		 * @param a latitude of country
-		 * @param o longitude of country
-		 */
-		Waypoint(String s, String a, String o) {
-			name = s;
-			lon = o;
-			lat = a;
+	private void pan(int dirX, int dirY) {
+		// credits to Husain Fazal for the formula and partial fragments of the code
+		int zoom = Integer.parseInt(ttfZoom.getText());
+		double[] center = MapLookup.panCenter(
+				Double.parseDouble(ttfLat.getText()),
+				Double.parseDouble(ttfLon.getText()), zoom, dirX, dirY);
+		ttfLat.setText(Double.toString(center[0]));
+		ttfLon.setText(Double.toString(center[1]));
+		_panDirX = dirX;
+		_panDirY = dirY;
+
+		// show the current map shifted by the pan straight away, the task
+		// then only has to fetch the strip that was uncovered
+		MapCanvas canvas = _canvas;
+		if (canvas != null) {
+			canvas = canvas.panTo(_mapRequest(center[0], center[1],
+					Integer.parseInt(ttfSizeW.getText()),
+					Integer.parseInt(ttfSizeH.getText()), zoom));
+			_canvas = canvas;
+			if (canvas != null) {
+				_img = canvas.getImage();
+				_displayImgInFrame();
+			}
 		}
+	}
 
-		/**
-		 * The getName method gets the name of the country
-		 * @return country name
-		 */
-		private String getName() {
-			return name;
-		}
-		
-		/**
-		 * The getLat method gets the latitude of the country
-		 * @return latitude
-		 */
-		private String getLat() {
-			return lat;
+	/**
+	 * Shows the current map rescaled to the new zoom around the same center
+	 * until the real map arrives. When zooming out the cached pan neighbours
+	 * of the current view are drawn around it, so less of the preview is blank.
+	 * @param zoom the zoom the slider was moved to
+	 */
+	private void zoomPreview(int zoom) {
+		MapCanvas canvas = _canvas;
+		if (canvas == null) return;
+		MapRequest current = canvas.getView();
+		int steps = zoom - current.getZoom();
+		if (steps == 0 || Math.abs(steps) > ZOOM_PREVIEW_STEPS_MAX) return;
+
+		MapRequest view;
+		try {
+			view = _mapRequest(Double.parseDouble(ttfLat.getText()),
+					Double.parseDouble(ttfLon.getText()),
+					Integer.parseInt(ttfSizeW.getText()),
+					Integer.parseInt(ttfSizeH.getText()), zoom);
+		} catch (IllegalArgumentException e) {
+			return; // the task reports bad input
 		}
-		
-		/**
-		 * The getLong method gets the longitude of the country
-		 * @return longitude
-		 */
-		private String getLong() {
-			return lon;
+
+		ArrayList<MapCanvas> sources = new ArrayList<MapCanvas>();
+		if (steps < 0) {
+			for (MapRequest r : MapPrefetcher.predict(current, 0, 0)) {
+				if (r.getZoom() != current.getZoom()) continue;
+				MapImageCache.Entry e = _imageCache.peek(r);
+				if (e != null && e.getImage() != null) sources.add(new MapCanvas(r, e.getImage()));
+			}
 		}
+		sources.add(canvas);
 
-		/**
-		 * The equals method checks returns true if 2 waypoint objects are the same
-		 * @return true if both waypoint objects are the same
-		 */
-		public boolean equals(Object z) {
-			boolean rc = false;
-			if (z instanceof Waypoint) {
-				Waypoint temp = (Waypoint) z;
-				if (temp.getName().equals(getName())
-						&& temp.getLat().equals(getLat())
-						&& temp.getLong().equals(getLong())) {
-					rc = true;
-				}
+		canvas = MapCanvas.preview(view, sources);
+		_canvas = canvas;
+		_img = canvas.getImage();
+		_displayImgInFrame();
+	}
+
+	/**
+	 * A named inner class that shows a map fetched without markers with the
+	 * markers drawn over it: the one at the center of its view and, with
+	 * -Dmapoverlay=true, the waypoints of _overlay, unless markersCheck is
+	 * off (it is only shown in that mode). They are drawn each time the icon
+	 * is painted, so a repaint shows new markers
+	 */
+	class OverlayIcon extends ImageIcon {
+		private static final long serialVersionUID = 1246010375339408073L;
+
+		private final MapRequest view; // the view the image shows
+
+		OverlayIcon(BufferedImage img, MapRequest view) {
+			super(img);
+			this.view = view;
+		}
 
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y) {
+			super.paintIcon(c, g, x, y);
+			if (!markersCheck.isSelected())
+				return;
+			Graphics2D g2 = (Graphics2D) g.create(x, y, getIconWidth(), getIconHeight());
+			try {
+				_overlay.plus(new MapMarker(view.getLat(), view.getLon()))
+						.paint(g2, view);
+			} finally {
+				g2.dispose();
 			}
-			return rc;
 		}
 	}
 
@@ -1338,42 +1887,14 @@ public class SampleApp extends JFrame {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			// credits to Husain Fazal for the formula and partial fragments of the code
-			int zoom = Integer.parseInt(ttfZoom.getText());
-			double toadd = 131.072 / java.lang.Math.pow(2, zoom + 1);
-			
 			if (e.getSource() == btnup) {
-				if ((Double.parseDouble(ttfLat.getText()) + toadd) > 85) {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) + toadd - 170));
-				} else {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) + toadd));
-				}
+				pan(0, 1);
 			} else if (e.getSource() == btndown) {
-				if ((Double.parseDouble(ttfLat.getText()) - toadd) < -85) {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) - toadd + 170));
-				} else {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) - toadd));
-				}
+				pan(0, -1);
 			} else if (e.getSource() == btnleft) {
-				if ((Double.parseDouble(ttfLon.getText()) - toadd) < -180) {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) - toadd + 360));
-				} else {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) - toadd));
-				}
+				pan(-1, 0);
 			} else if (e.getSource() == btnright) {
-				if ((Double.parseDouble(ttfLon.getText()) + toadd) > 180) {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) + toadd - 360));
-				} else {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) + toadd));
-				}
+				pan(1, 0);
 			}
 			startTaskAction();
 		}
@@ -1388,49 +1909,24 @@ public class SampleApp extends JFrame {
 
 		@Override
 		public void keyPressed(KeyEvent e) {
-			// credits to Husain Fazal for the formula and partial fragments of the code
-			int zoom = Integer.parseInt(ttfZoom.getText());
-			double toadd = 131.072 / java.lang.Math.pow(2, zoom + 1);
-
 			int keyCode = e.getKeyCode();
 			switch (keyCode) {
 			case KeyEvent.VK_LEFT:
-				if ((Double.parseDouble(ttfLon.getText()) - toadd) < -180) {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) - toadd + 360));
-				} else {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) - toadd));
-				}
+				pan(-1, 0);
 				break;
 			case KeyEvent.VK_RIGHT:
-				if ((Double.parseDouble(ttfLon.getText()) + toadd) > 180) {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) + toadd - 360));
-				} else {
-					ttfLon.setText(Double.toString(Double.parseDouble(ttfLon
-							.getText()) + toadd));
-				}
+				pan(1, 0);
 				break;
 			case KeyEvent.VK_UP:
-				if ((Double.parseDouble(ttfLat.getText()) + toadd) > 85) {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) + toadd - 170));
-				} else {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) + toadd));
-				}
+				pan(0, 1);
 				break;
 			case KeyEvent.VK_DOWN:
-				if ((Double.parseDouble(ttfLat.getText()) - toadd) < -85) {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) - toadd + 170));
-				} else {
-					ttfLat.setText(Double.toString(Double.parseDouble(ttfLat
-							.getText()) - toadd));
-				}
+				pan(0, -1);
 				break;
+			default:
+				return;
 			}
+			startTaskAction();
 		}
 
 		@Override
@@ -1453,29 +1949,37 @@ public class SampleApp extends JFrame {
 	static final int ZOOM_MIN = 0; // defines min of zoom bar
 	static final int ZOOM_MAX = 19; // defines max of zoom bar
 	static final int ZOOM_INIT = 14; // defines initial start of zoom bar
+	static final int ZOOM_PREVIEW_STEPS_MAX = 4; // further than this the preview is just a blur
+	static final int STARTUP_TIMEOUT_MS = 5000; // how long startup waits for a remote service
+	static final String WAYPOINTS_FILE = "waypoints.txt"; // in the current directory unless -Dwaypoints.file is set
+	static final int WAYPOINTS_NEARBY = 5; // nearest waypoints listed first in the waypoint box
+	static final int WAYPOINTS_IN_VIEW_MAX = 10000; // counted up to this many
+	static final String NAME_PROTOTYPE = "Select a country..."; // sizes the cells of the name boxes
+	static final int PROGRESSIVE_SIZE = 128; // largest side of the low res map in progressive mode
 	private JSlider zoomSlider; // zoom jslider
 	private JPanel zoomPanel; // panel to hold zoomslider
 	private JScrollPane dialogScroll; // scrollpane to show scroll for dialogpane
 	private JComboBox<String> wayPointsBox; // combobox of waypoints
-	private ArrayList<Waypoint> wps; // arraylist of Waypoint objects
-	private File wptext; // wp .txt file
-	private FileInputStream fstream; // file input stream
+	private final WaypointStore _waypoints = new WaypointStore(new File(
+			System.getProperty("waypoints.file", WAYPOINTS_FILE)),
+			Long.getLong("waypoints.flushms", WaypointWriter.FLUSH_MS_DEFAULT),
+			!"false".equals(System.getProperty("waypoints.fsync"))); // saved waypoints, a .wpb file is binary
 	private JButton saveWP; // button to save waypoint
+	private JButton importWP; // button to import waypoints from a file
+	private JButton exportWP; // button to export waypoints to a file
 	private JPanel WPPanel; // panel to hold waypoint components
 	private JTextField nameText; // textfield to hold name of waypoint
 	private JLabel nameLabel; // label to show "Waypoint Name: "
 	private JTable table; // table to hold table of user data
 	private JList list; // list to hold row headers
 	private JScrollPane scroll; // scrollpane for table if it ever gets bigger
-	private ArrayList<String> userInfo; // arraylist to hold user's ip relevant info
+	private volatile ArrayList<String> userInfo; // arraylist to hold user's ip relevant info
 	private JPanel panning; // panel to hold panning components
 	private JButton btnup; // btn to pan up
 	private JButton btndown; // btn to pan down
 	private JButton btnleft; // btn to pan left
 	private JButton btnright; // btn to pan right
-	private static String[] countries; // array of country names
-	private static double[][] location; // 2d-array of country locations
-	private static ArrayList<Object> loc; // arraylist of country, longitude, and latitude
+	private static Gazetteer gazetteer; // countries and their locations
 	private JPanel mapContent; // panel to hold map contents
 	private JPanel mPanel1; // panel to hold map contents
 	private JPanel mapOptions; // panel to hold map options
@@ -1484,6 +1988,9 @@ public class SampleApp extends JFrame {
 	private JComboBox<String> jcbox; // combobox with country listing
 	private JButton save; // button to save map
 	private JLabel ipLabel; // label to show "Current User's IP"
+	private JLabel nearestLabel; // label to show the country nearest the map center
+	private JLabel waypointsLabel; // label to show the waypoints on the map
+	private JCheckBox markersCheck; // shows or hides the markers drawn on the map
 	private JTextField ipText; // textfield to display uneditable user's external IP
 	private String userIP; // hold's the users IP
 	
@@ -0,0 +1,159 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+/**
+ * Class Waypoint is the value a waypoint is passed around as: its name,
+ * latitude and longitude. It isn't where waypoints are kept, that is the
+ * {@link WaypointStore}, which looks them up by name and by place through
+ * its {@link WaypointTable} or {@link WaypointFile} and the
+ * {@link WaypointIndex}
+ * <p>
+ * The coordinates are doubles checked once when the waypoint is made, see
+ * {@link #parse}; {@link #formatCoordinate} turns them back into text
+ * without making garbage.
+ * @author Neil Brian Guzman
+ */
+class Waypoint {
+	static final int DECIMALS = 6; // coordinates are kept to millionths of a degree, like MapRequest
+	static final int COORDINATE_CHARS_MAX = 12; // "-180.000000" plus one spare
+
+	private static final long SCALE = 1000000L; // 10^DECIMALS
+
+	private String name; // stores the name
+	private double lon;  // stores the longitude
+	private double lat;  // stores the latitude
+
+	/**
+	 * Waypoint constructor initializes the country name, longitude, and latitude
+	 * @param s name of country
+	 * @param a latitude of country
+	 * @param o longitude of country
+	 * @throws IllegalArgumentException when the coordinates are out of range
+	 */
+	Waypoint(String s, double a, double o) {
+		checkCoordinates(a, o);
+		name = s;
+		lon = o;
+		lat = a;
+	}
+
+	/**
+	 * The parse method makes a waypoint from text fields
+	 * @param s name of country
+	 * @param a latitude of country
+	 * @param o longitude of country
+	 * @return the waypoint
+	 * @throws IllegalArgumentException when a coordinate isn't a number or is
+	 *         out of range
+	 */
+	static Waypoint parse(String s, String a, String o) {
+		return new Waypoint(s, Double.parseDouble(a.trim()), Double.parseDouble(o.trim()));
+	}
+
+	/**
+	 * The checkCoordinates method makes sure a latitude and longitude can be
+	 * shown on a map
+	 * @throws IllegalArgumentException when they can't
+	 */
+	static void checkCoordinates(double lat, double lon) {
+		if (!(lat >= -90 && lat <= 90))
+			throw new IllegalArgumentException("latitude " + lat + " is out of range [-90, 90]");
+		if (!(lon >= -180 && lon <= 180))
+			throw new IllegalArgumentException("longitude " + lon + " is out of range [-180, 180]");
+	}
+
+	/**
+	 * The getName method gets the name of the country
+	 * @return country name
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * The getLat method gets the latitude of the country
+	 * @return latitude
+	 */
+	double getLat() {
+		return lat;
+	}
+
+	/**
+	 * The getLong method gets the longitude of the country
+	 * @return longitude
+	 */
+	double getLong() {
+		return lon;
+	}
+
+	/**
+	 * The formatCoordinate method writes a coordinate in plain decimal
+	 * notation, rounded to DECIMALS places and without trailing zeros (but
+	 * with at least one decimal), eg. "-75.1234" or "2.0". It allocates
+	 * nothing, so it can be used for every line of a big export
+	 * @param v the coordinate, within [-180, 180]
+	 * @param buf where to write, needs COORDINATE_CHARS_MAX chars from at
+	 * @param at where in buf to start
+	 * @return the number of chars written
+	 */
+	static int formatCoordinate(double v, char[] buf, int at) {
+		long fixed = Math.round(v * SCALE);
+		int p = at;
+		if (fixed < 0) {
+			buf[p++] = '-';
+			fixed = -fixed;
+		}
+		long whole = fixed / SCALE;
+		long frac = fixed % SCALE;
+
+		// whole part, at most 3 digits
+		if (whole >= 100)
+			buf[p++] = (char) ('0' + whole / 100);
+		if (whole >= 10)
+			buf[p++] = (char) ('0' + whole / 10 % 10);
+		buf[p++] = (char) ('0' + whole % 10);
+		buf[p++] = '.';
+
+		// fraction, trailing zeros dropped
+		int digits = DECIMALS;
+		while (digits > 1 && frac % 10 == 0) {
+			frac /= 10;
+			digits--;
+		}
+		for (int i = digits - 1; i >= 0; i--) {
+			buf[p + i] = (char) ('0' + frac % 10);
+			frac /= 10;
+		}
+		return p + digits - at;
+	}
+
+	/**
+	 * The formatCoordinate method is the String version of
+	 * {@link #formatCoordinate(double, char[], int)}, for text fields
+	 */
+	static String formatCoordinate(double v) {
+		char[] buf = new char[COORDINATE_CHARS_MAX];
+		return new String(buf, 0, formatCoordinate(v, buf, 0));
+	}
+
+	/**
+	 * The equals method checks returns true if 2 waypoint objects are the same
+	 * @return true if both waypoint objects are the same
+	 */
+	public boolean equals(Object z) {
+		boolean rc = false;
+		if (z instanceof Waypoint) {
+			Waypoint temp = (Waypoint) z;
+			if (temp.getName().equals(getName())
+					&& temp.getLat() == getLat()
+					&& temp.getLong() == getLong()) {
+				rc = true;
+			}
+
+		}
+		return rc;
+	}
+
+	public int hashCode() {
+		return name == null ? 0 : name.hashCode();
+	}
+}
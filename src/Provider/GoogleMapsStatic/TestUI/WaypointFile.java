@@ -0,0 +1,620 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The WaypointFile is the binary waypoint format, for files too big to read
+ * line by line at startup. The whole file is memory mapped; opening it only
+ * reads the header and the name hashes, and a waypoint's fields are read from
+ * the mapping when they are asked for, so no per waypoint objects are made.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ * header, 32 bytes:
+ *   int magic 'WPB1', int record capacity, int records used,
+ *   int records deleted, int names capacity, int names used, 8 bytes unused
+ * records, 32 bytes each, capacity of them:
+ *   double latitude, double longitude, int name offset, int name hash,
+ *   short name length, byte flags, 5 bytes unused
+ * names, UTF-8, names capacity bytes
+ * </pre>
+ * Appending writes a record and its name in the free space. Deleting only
+ * flags the record; {@link #compact()} (run off the EDT, see
+ * {@link WaypointStore}) rewrites the file without the deleted records once
+ * there are enough of them, and also grows the file when it is full.
+ * <p>
+ * The methods are synchronized, but {@link #compact()} holds the lock only
+ * to catch up and switch files, not while it copies. Record indexes change on
+ * compaction.
+ */
+class WaypointFile {
+	static final int MAGIC = 0x57504231; // 'WPB1'
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = 32;
+	static final int CAPACITY_DEFAULT = 1024; // records in a new file
+	static final int NAME_BYTES_DEFAULT = 16; // name space per record in a new file
+	static final int NAME_LENGTH_MAX = 0xffff; // bytes
+
+	private static final int FLAG_DELETED = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// header fields
+	private static final int H_CAPACITY = 4, H_COUNT = 8, H_DELETED = 12,
+			H_NAMES_CAPACITY = 16, H_NAMES_USED = 20;
+	// record fields
+	private static final int R_LAT = 0, R_LON = 8, R_NAME_OFFSET = 16,
+			R_NAME_HASH = 20, R_NAME_LENGTH = 24, R_FLAGS = 26;
+
+	private final File file; // the file
+	private RandomAccessFile raf; // open while the file is
+	private MappedByteBuffer map; // the whole file
+	private int capacity, count, deleted, namesCapacity, namesUsed; // header
+	private int[] slots; // open addressing table of record index + 1 by name hash
+	private int modCount; // changes whenever a record is added, deleted or moved
+	private int maps; // changes whenever the file is replaced or closed
+	private int[] deletedSince; // records deleted while compact copies, null when it doesn't
+	private int deletedSinceCount;
+
+	/**
+	 * WaypointFile constructor, see {@link #open}
+	 */
+	private WaypointFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * The open method maps a waypoint file, creating an empty one if it
+	 * doesn't exist
+	 * @param file the .wpb file
+	 * @return the open file
+	 * @throws IOException when the file can't be created or isn't a waypoint file
+	 */
+	static WaypointFile open(File file) throws IOException {
+		if (!file.exists())
+			_create(file, CAPACITY_DEFAULT, CAPACITY_DEFAULT * NAME_BYTES_DEFAULT).close();
+		WaypointFile wf = new WaypointFile(file);
+		wf._map();
+		return wf;
+	}
+
+	/**
+	 * @return the number of records, including deleted ones
+	 */
+	synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * @return a number that changes whenever a record is added, deleted or
+	 *         moved, to tell when something derived from the records is stale
+	 */
+	synchronized int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * @return the number of waypoints that aren't deleted
+	 */
+	synchronized int liveCount() {
+		return count - deleted;
+	}
+
+	synchronized boolean isDeleted(int i) {
+		return (map.get(_record(i) + R_FLAGS) & FLAG_DELETED) != 0;
+	}
+
+	synchronized double getLat(int i) {
+		return map.getDouble(_record(i) + R_LAT);
+	}
+
+	synchronized double getLon(int i) {
+		return map.getDouble(_record(i) + R_LON);
+	}
+
+	synchronized String getName(int i) {
+		int r = _record(i);
+		byte[] bytes = new byte[map.getShort(r + R_NAME_LENGTH) & 0xffff];
+		ByteBuffer b = map.duplicate();
+		b.position(HEADER_SIZE + capacity * RECORD_SIZE + map.getInt(r + R_NAME_OFFSET));
+		b.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * The forEach method passes every waypoint that isn't deleted to the
+	 * visitor, in record order. It reads a copy of the mapping taken holding
+	 * the lock, but doesn't hold it while visiting, so the file can be used
+	 * meanwhile: waypoints appended since aren't visited and waypoints
+	 * deleted since may still be
+	 * @throws IOException when the visitor throws it
+	 */
+	void forEach(WaypointStore.Visitor v) throws IOException {
+		ByteBuffer src;
+		int srcCapacity, srcCount;
+		synchronized (this) {
+			src = map.duplicate();
+			srcCapacity = capacity;
+			srcCount = count;
+		}
+		byte[] bytes = new byte[64];
+		for (int i = 0; i < srcCount; i++) {
+			int r = HEADER_SIZE + i * RECORD_SIZE;
+			if ((src.get(r + R_FLAGS) & FLAG_DELETED) != 0)
+				continue;
+			int length = src.getShort(r + R_NAME_LENGTH) & 0xffff;
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, 2 * bytes.length)];
+			src.position(HEADER_SIZE + srcCapacity * RECORD_SIZE + src.getInt(r + R_NAME_OFFSET));
+			src.get(bytes, 0, length);
+			v.visit(new String(bytes, 0, length, UTF8), src.getDouble(r + R_LAT),
+					src.getDouble(r + R_LON));
+		}
+	}
+
+	/**
+	 * The indexOf method finds a waypoint by name through the name hashes,
+	 * only names with a matching hash are decoded
+	 * @return the record of the waypoint that isn't deleted, or -1
+	 */
+	synchronized int indexOf(String name) {
+		int mask = slots.length - 1;
+		int hash = name.hashCode();
+		for (int slot = _spread(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+			int i = slots[slot] - 1;
+			int r = _record(i);
+			if (map.getInt(r + R_NAME_HASH) == hash && !isDeleted(i)
+					&& getName(i).equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the waypoint with that name, or null. Found and read holding
+	 *         the lock, so a compaction can't move it in between
+	 */
+	synchronized Waypoint get(String name) {
+		int i = indexOf(name);
+		return i < 0 ? null : new Waypoint(name, getLat(i), getLon(i));
+	}
+
+	/**
+	 * The delete method flags the waypoint with that name as deleted, found
+	 * and flagged holding the lock
+	 * @return the record index it had, or -1 if there is none
+	 */
+	synchronized int delete(String name) {
+		int i = indexOf(name);
+		if (i >= 0)
+			delete(i);
+		return i;
+	}
+
+	/**
+	 * The append method adds a waypoint at the end of the file, growing the
+	 * file first if there is no room
+	 * @return the record index of the new waypoint
+	 * @throws IOException when the file can't be grown
+	 */
+	synchronized int append(String name, double lat, double lon) throws IOException {
+		Waypoint.checkCoordinates(lat, lon);
+		byte[] bytes = name.getBytes(UTF8);
+		if (bytes.length > NAME_LENGTH_MAX)
+			throw new IllegalArgumentException("waypoint name is too long");
+		if (count == capacity || namesUsed + bytes.length > namesCapacity)
+			_rewrite(Math.max(capacity, 2 * liveCount() + 1),
+					Math.max(namesCapacity, 2 * (namesUsed + bytes.length)));
+
+		int i = count;
+		_writeRecord(map, capacity, i, name, bytes, lat, lon, namesUsed);
+		namesUsed += bytes.length;
+		count++;
+		modCount++;
+		_writeHeader(map, capacity, count, deleted, namesCapacity, namesUsed);
+
+		if (2 * count > slots.length)
+			_rehash();
+		else
+			_slot(slots, i, name.hashCode());
+		return i;
+	}
+
+	/**
+	 * The delete method flags a record as deleted, its space is given back
+	 * by the next compaction
+	 */
+	synchronized void delete(int i) {
+		int r = _record(i);
+		byte flags = map.get(r + R_FLAGS);
+		if ((flags & FLAG_DELETED) != 0)
+			return;
+		map.put(r + R_FLAGS, (byte) (flags | FLAG_DELETED));
+		if (deletedSince != null) {
+			if (deletedSinceCount == deletedSince.length)
+				deletedSince = Arrays.copyOf(deletedSince, 2 * deletedSinceCount);
+			deletedSince[deletedSinceCount++] = i;
+		}
+		deleted++;
+		modCount++;
+		_writeHeader(map, capacity, count, deleted, namesCapacity, namesUsed);
+	}
+
+	/**
+	 * @return true when a quarter or more of the records are deleted
+	 */
+	synchronized boolean needsCompaction() {
+		return deleted > 0 && deleted * 4 >= count;
+	}
+
+	/**
+	 * The compact method rewrites the file without the deleted records. The
+	 * new file is written next to the old one and renamed over it, so a crash
+	 * leaves one or the other.
+	 * <p>
+	 * The records there are when it starts are copied without holding the
+	 * lock, so the file can be read and written meanwhile. Then, holding the
+	 * lock, the records deleted and appended since are caught up on and the
+	 * new file takes the old one's place. If the file was grown or closed in
+	 * between, the copy is thrown away: growing compacts it too
+	 * @throws IOException when the new file can't be written
+	 */
+	void compact() throws IOException {
+		ByteBuffer src;
+		int srcCapacity, srcCount, srcMaps;
+		synchronized (this) {
+			src = map.duplicate();
+			srcCapacity = capacity;
+			srcCount = count;
+			srcMaps = maps;
+			deletedSince = new int[16];
+			deletedSinceCount = 0;
+		}
+		try {
+			_compact(src, srcCapacity, srcCount, srcMaps);
+		} finally {
+			synchronized (this) {
+				deletedSince = null;
+			}
+		}
+	}
+
+	/** the copy and the switch of {@link #compact()}, given what it saw holding the lock */
+	private void _compact(ByteBuffer src, int srcCapacity, int srcCount,
+			int srcMaps) throws IOException {
+		// the records there are now, deletes made meanwhile are caught up on
+		// below and appends only go after srcCount
+		int live = 0, nameBytes = 0;
+		for (int i = 0; i < srcCount; i++) {
+			int r = HEADER_SIZE + i * RECORD_SIZE;
+			if ((src.get(r + R_FLAGS) & FLAG_DELETED) == 0) {
+				live++;
+				nameBytes += src.getShort(r + R_NAME_LENGTH) & 0xffff;
+			}
+		}
+		int newCapacity = Math.max(CAPACITY_DEFAULT, 2 * live);
+		int newNamesCapacity = Math.max(CAPACITY_DEFAULT * NAME_BYTES_DEFAULT, 2 * nameBytes);
+		int[] moved = new int[srcCount]; // new record index of each copied record, -1 if not copied
+
+		File tmp = new File(file.getPath() + ".compact");
+		tmp.delete();
+		RandomAccessFile out = _create(tmp, newCapacity, newNamesCapacity);
+		try {
+			MappedByteBuffer dst = out.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, out.length());
+			int n = 0, names = 0;
+			for (int i = 0; i < srcCount; i++) {
+				if ((src.get(HEADER_SIZE + i * RECORD_SIZE + R_FLAGS) & FLAG_DELETED) != 0) {
+					moved[i] = -1;
+					continue;
+				}
+				names += _copyRecord(src, srcCapacity, i, dst, newCapacity, n, names);
+				moved[i] = n++;
+			}
+			dst.force();
+
+			// the name table of the new file, grown below if it gets too full
+			int[] table = new int[Integer.highestOneBit(Math.max(2, n) * 4 - 1)];
+			for (int j = 0; j < n; j++) {
+				_slot(table, j, dst.getInt(HEADER_SIZE + j * RECORD_SIZE + R_NAME_HASH));
+			}
+
+			synchronized (this) {
+				if (maps != srcMaps)
+					return; // grown, which compacted it, or closed
+				int dead = 0;
+				for (int k = 0; k < deletedSinceCount; k++) {
+					int i = deletedSince[k];
+					if (i < srcCount && moved[i] >= 0) {
+						dst.put(HEADER_SIZE + moved[i] * RECORD_SIZE + R_FLAGS, (byte) FLAG_DELETED);
+						dead++;
+					}
+				}
+				for (int i = srcCount; i < count; i++) {
+					if (isDeleted(i))
+						continue;
+					int length = map.getShort(_record(i) + R_NAME_LENGTH) & 0xffff;
+					if (n == newCapacity || names + length > newNamesCapacity) {
+						// too many appends to fit, rewrite it all while holding the lock
+						_rewrite(Math.max(CAPACITY_DEFAULT, 2 * liveCount()), Math.max(
+								CAPACITY_DEFAULT * NAME_BYTES_DEFAULT, 2 * namesUsed));
+						return;
+					}
+					names += _copyRecord(map, capacity, i, dst, newCapacity, n, names);
+					if (table != null && 2 * (n + 1) <= table.length)
+						_slot(table, n, map.getInt(_record(i) + R_NAME_HASH));
+					else
+						table = null; // too full, remade from the new file below
+					n++;
+				}
+				_writeHeader(dst, newCapacity, n, dead, newNamesCapacity, names);
+				dst.force();
+				out.close();
+
+				modCount++;
+				maps++;
+				raf.close();
+				_replace(tmp, file);
+				_open();
+				if (table != null)
+					slots = table;
+				else
+					_rehash();
+			}
+		} finally {
+			out.close();
+			tmp.delete(); // unless it was renamed
+		}
+	}
+
+	/**
+	 * The force method makes sure everything written is on disk
+	 */
+	synchronized void force() {
+		map.force();
+	}
+
+	synchronized void close() throws IOException {
+		map.force();
+		maps++;
+		raf.close();
+	}
+
+	/**
+	 * The convert method reads a waypoints.txt style file, one
+	 * "name;longitude;latitude" line per waypoint, into a new binary file.
+	 * Unreadable lines are skipped and of lines with the same name only the
+	 * last one is kept, like {@link WaypointStore#load()} does
+	 * @param txt the text file
+	 * @param wpb the binary file, replaced if it exists
+	 * @return the number of waypoints written
+	 * @throws IOException when either file can't be used
+	 */
+	static int convert(File txt, File wpb) throws IOException {
+		File tmp = new File(wpb.getPath() + ".tmp");
+		tmp.delete();
+		WaypointFile out = open(tmp);
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					new FileInputStream(txt), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] temp = line.split(WaypointStore.SEPARATOR);
+					if (temp.length < 3)
+						continue;
+					double lon, lat;
+					try {
+						lon = Double.parseDouble(temp[1]);
+						lat = Double.parseDouble(temp[2]);
+						Waypoint.checkCoordinates(lat, lon);
+					} catch (IllegalArgumentException e) {
+						continue;
+					}
+					int old = out.indexOf(temp[0]);
+					if (old >= 0)
+						out.delete(old);
+					out.append(temp[0], lat, lon);
+				}
+			} finally {
+				in.close();
+			}
+			if (out.deleted > 0)
+				out.compact();
+		} finally {
+			out.close();
+		}
+		_replace(tmp, wpb);
+		return out.liveCount();
+	}
+
+	/**
+	 * converts a text waypoint file, eg.
+	 * <pre>
+	 * java Provider.GoogleMapsStatic.TestUI.WaypointFile waypoints.txt waypoints.wpb
+	 * </pre>
+	 * and reports how long opening the result takes
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: WaypointFile <in.txt> <out.wpb>");
+			System.exit(1);
+		}
+		long start = System.nanoTime();
+		int n = convert(new File(args[0]), new File(args[1]));
+		long converted = System.nanoTime();
+		WaypointFile wf = open(new File(args[1]));
+		long opened = System.nanoTime();
+		wf.close();
+		System.out.println("converted " + n + " waypoints in "
+				+ (converted - start) / 1000000 + "ms, opening takes "
+				+ (opened - converted) / 1000000 + "ms");
+	}
+
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+	// internals
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+
+	private void _map() throws IOException {
+		_open();
+		_rehash();
+	}
+
+	/** maps the file and reads its header */
+	private void _open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		if (raf.length() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+			raf.close();
+			throw new IOException(file + " is not a waypoint file");
+		}
+		capacity = map.getInt(H_CAPACITY);
+		count = map.getInt(H_COUNT);
+		deleted = map.getInt(H_DELETED);
+		namesCapacity = map.getInt(H_NAMES_CAPACITY);
+		namesUsed = map.getInt(H_NAMES_USED);
+		if (count < 0 || count > capacity || namesUsed > namesCapacity
+				|| HEADER_SIZE + (long) capacity * RECORD_SIZE + namesCapacity != raf.length()) {
+			raf.close();
+			throw new IOException(file + " is truncated or corrupt");
+		}
+	}
+
+	/** builds the name table from the hashes stored in the records */
+	private void _rehash() {
+		int size = Integer.highestOneBit(Math.max(2, count) * 4 - 1);
+		int[] table = new int[size];
+		for (int i = 0; i < count; i++) {
+			int r = _record(i);
+			if ((map.get(r + R_FLAGS) & FLAG_DELETED) == 0)
+				_slot(table, i, map.getInt(r + R_NAME_HASH));
+		}
+		slots = table;
+	}
+
+	private static void _slot(int[] table, int i, int hash) {
+		int mask = table.length - 1;
+		int slot = _spread(hash) & mask;
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+		table[slot] = i + 1;
+	}
+
+	private static int _spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private int _record(int i) {
+		if (i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("waypoint " + i + " of " + count);
+		return HEADER_SIZE + i * RECORD_SIZE;
+	}
+
+	/** copies the live records into a new file of the given size and switches to it */
+	private void _rewrite(int newCapacity, int newNamesCapacity) throws IOException {
+		modCount++;
+		maps++;
+		File tmp = new File(file.getPath() + ".tmp");
+		tmp.delete();
+		RandomAccessFile out = _create(tmp, newCapacity, newNamesCapacity);
+		try {
+			MappedByteBuffer dst = out.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, out.length());
+			int n = 0, names = 0;
+			for (int i = 0; i < count; i++) {
+				if (isDeleted(i))
+					continue;
+				String name = getName(i);
+				byte[] bytes = name.getBytes(UTF8);
+				_writeRecord(dst, newCapacity, n++, name, bytes, getLat(i), getLon(i), names);
+				names += bytes.length;
+			}
+			_writeHeader(dst, newCapacity, n, 0, newNamesCapacity, names);
+			dst.force();
+		} finally {
+			out.close();
+		}
+
+		raf.close();
+		_replace(tmp, file);
+		_map();
+	}
+
+	private static RandomAccessFile _create(File f, int capacity, int namesCapacity) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		out.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE + namesCapacity);
+		out.seek(0);
+		out.writeInt(MAGIC);
+		out.writeInt(capacity);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(namesCapacity);
+		out.writeInt(0);
+		return out;
+	}
+
+	private static void _writeHeader(ByteBuffer b, int capacity, int count,
+			int deleted, int namesCapacity, int namesUsed) {
+		b.putInt(H_CAPACITY, capacity);
+		b.putInt(H_COUNT, count);
+		b.putInt(H_DELETED, deleted);
+		b.putInt(H_NAMES_CAPACITY, namesCapacity);
+		b.putInt(H_NAMES_USED, namesUsed);
+	}
+
+	/**
+	 * copies record i of src, with its name bytes, to record j of dst
+	 * @return the length of the name
+	 */
+	private static int _copyRecord(ByteBuffer src, int srcCapacity, int i,
+			ByteBuffer dst, int dstCapacity, int j, int nameOffset) {
+		int r = HEADER_SIZE + i * RECORD_SIZE;
+		int w = HEADER_SIZE + j * RECORD_SIZE;
+		int length = src.getShort(r + R_NAME_LENGTH) & 0xffff;
+		dst.putDouble(w + R_LAT, src.getDouble(r + R_LAT));
+		dst.putDouble(w + R_LON, src.getDouble(r + R_LON));
+		dst.putInt(w + R_NAME_OFFSET, nameOffset);
+		dst.putInt(w + R_NAME_HASH, src.getInt(r + R_NAME_HASH));
+		dst.putShort(w + R_NAME_LENGTH, (short) length);
+		dst.put(w + R_FLAGS, (byte) 0);
+		ByteBuffer from = src.duplicate();
+		from.position(HEADER_SIZE + srcCapacity * RECORD_SIZE + src.getInt(r + R_NAME_OFFSET));
+		from.limit(from.position() + length);
+		ByteBuffer to = dst.duplicate();
+		to.position(HEADER_SIZE + dstCapacity * RECORD_SIZE + nameOffset);
+		to.put(from);
+		return length;
+	}
+
+	private static void _writeRecord(ByteBuffer b, int capacity, int i, String name,
+			byte[] bytes, double lat, double lon, int nameOffset) {
+		int r = HEADER_SIZE + i * RECORD_SIZE;
+		b.putDouble(r + R_LAT, lat);
+		b.putDouble(r + R_LON, lon);
+		b.putInt(r + R_NAME_OFFSET, nameOffset);
+		b.putInt(r + R_NAME_HASH, name.hashCode());
+		b.putShort(r + R_NAME_LENGTH, (short) bytes.length);
+		b.put(r + R_FLAGS, (byte) 0);
+		ByteBuffer names = b.duplicate();
+		names.position(HEADER_SIZE + capacity * RECORD_SIZE + nameOffset);
+		names.put(bytes);
+	}
+
+	/** renames src over dst, which File.renameTo won't do on every platform */
+	private static void _replace(File src, File dst) throws IOException {
+		if (!src.renameTo(dst)) {
+			dst.delete();
+			if (!src.renameTo(dst))
+				throw new IOException("couldn't replace " + dst);
+		}
+	}
+}
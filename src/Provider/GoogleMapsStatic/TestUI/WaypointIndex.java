@@ -0,0 +1,328 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.util.Arrays;
+
+import Provider.GoogleMapsStatic.GeoIndex;
+
+/**
+ * The WaypointIndex finds waypoints by where they are: the ones inside a
+ * box of latitude and longitude (the map in view) and the ones nearest to a
+ * point (the map center). Unlike {@link GeoIndex}, which is built once, it
+ * takes waypoints one at a time as they are saved.
+ * <p>
+ * It is a quadtree over latitude and longitude. Each leaf holds the ids of
+ * at most BUCKET_MAX waypoints; when it gets more it is split into four at
+ * its middle, so cells are small where the waypoints are dense (a city) and
+ * large where they are sparse, and no query has to look through much more
+ * than it finds. A box query only visits the cells the box covers. A nearest
+ * query looks in the cells around a circle on the globe centered on the
+ * point, starting about as big as the cell the point is in and doubling its
+ * radius until it holds enough waypoints. Distances are great circle
+ * distances, so it is right across the antimeridian and near the poles.
+ * <p>
+ * Ids are small ints chosen by the caller, {@link WaypointStore} uses the
+ * index of the waypoint. It isn't synchronized, the store guards it.
+ */
+class WaypointIndex {
+	static final int BUCKET_MAX = 64; // waypoints in a leaf before it is split
+	static final int DEPTH_MAX = 24; // splits below the root, cells of about 2m; deeper leaves just grow
+
+	private static final double RHO_MIN = 1e-7; // smallest search radius, in radians (under 1m)
+	private static final double RHO_START_MAX = Math.toRadians(0.25); // largest first search radius
+
+	private final Node root = new Node(-90, -180, 90, 180, 0);
+	private double[] lats = new double[0]; // by id, NaN for none
+	private double[] lons = new double[0]; // by id
+	private int size; // ids in the index
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * The add method puts a waypoint in the index
+	 * @param id not in the index already
+	 */
+	void add(int id, double lat, double lon) {
+		if (id >= lats.length) {
+			int capacity = Math.max(id + 1, 2 * lats.length);
+			int from = lats.length;
+			lats = Arrays.copyOf(lats, capacity);
+			lons = Arrays.copyOf(lons, capacity);
+			Arrays.fill(lats, from, capacity, Double.NaN);
+		}
+		if (!Double.isNaN(lats[id]))
+			throw new IllegalArgumentException("waypoint " + id + " is already indexed");
+		lats[id] = lat;
+		lons[id] = lon;
+
+		Node leaf = root.leaf(lat, lon);
+		leaf.add(id);
+		if (leaf.count > BUCKET_MAX && leaf.depth < DEPTH_MAX)
+			split(leaf);
+		size++;
+	}
+
+	/**
+	 * The remove method takes a waypoint out of the index
+	 * @return false if it wasn't in it
+	 */
+	boolean remove(int id) {
+		if (id >= lats.length || Double.isNaN(lats[id]))
+			return false;
+		Node leaf = root.leaf(lats[id], lons[id]);
+		for (int j = 0; j < leaf.count; j++) {
+			if (leaf.ids[j] == id) {
+				leaf.ids[j] = leaf.ids[--leaf.count];
+				break;
+			}
+		}
+		lats[id] = Double.NaN;
+		size--;
+		return true;
+	}
+
+	/**
+	 * The removeShifting method takes a waypoint out of the index and moves
+	 * the ids after it down one, the way {@link WaypointTable#remove} moves
+	 * the waypoints. It walks every leaf once, which is much cheaper than
+	 * indexing all the waypoints again
+	 * @return false if it wasn't in it, nothing is moved then
+	 */
+	boolean removeShifting(int id) {
+		if (!remove(id))
+			return false;
+		shift(root, id);
+		System.arraycopy(lats, id + 1, lats, id, lats.length - id - 1);
+		System.arraycopy(lons, id + 1, lons, id, lons.length - id - 1);
+		lats[lats.length - 1] = Double.NaN;
+		return true;
+	}
+
+	/**
+	 * The inBox method finds the waypoints inside a box. A box crossing the
+	 * antimeridian has west greater than east
+	 * @param found filled with the ids, in no particular order
+	 * @return how many were found, at most found.length
+	 */
+	int inBox(double south, double west, double north, double east, int[] found) {
+		if (west > east) {
+			int n = inBox(root, south, west, north, 180, found, 0);
+			return inBox(root, south, -180, north, east, found, n);
+		}
+		return inBox(root, south, west, north, east, found, 0);
+	}
+
+	/**
+	 * The nearest method finds the waypoints closest to a point, as many as
+	 * fit in ids
+	 * @param ids filled with the ids of the closest waypoints, closest first
+	 * @param distKm null, or filled with the great circle distance of each
+	 * @return how many were found, less than ids.length only if the index
+	 *         has fewer waypoints
+	 */
+	int nearest(double lat, double lon, int[] ids, double[] distKm) {
+		Search q = new Search(lat, lon, Math.min(ids.length, size), ids);
+
+		// look in the box around a cap of radius rho, doubling it until the
+		// cap holds k waypoints; the box holds the whole cap, so nothing
+		// outside it can beat them
+		Node start = root.leaf(lat, lon);
+		double rho = Math.max(RHO_MIN, Math.min(RHO_START_MAX,
+				Math.toRadians(start.north - start.south) / 2));
+		for (; q.k > 0; rho *= 2) {
+			double capDeg = Math.toDegrees(Math.min(rho, Math.PI));
+			double south = Math.max(-90, lat - capDeg), north = Math.min(90, lat + capDeg);
+			q.found = 0;
+			if (lat - capDeg > -90 && lat + capDeg < 90 && rho < Math.PI / 2) {
+				double dLon = Math.toDegrees(Math.asin(Math.min(1, Math.sin(rho) / q.cosPhi)));
+				double west = lon - dLon, east = lon + dLon;
+				if (west < -180) {
+					nearest(root, q, south, west + 360, north, 180);
+					nearest(root, q, south, -180, north, east);
+				} else if (east > 180) {
+					nearest(root, q, south, west, north, 180);
+					nearest(root, q, south, -180, north, east - 360);
+				} else {
+					nearest(root, q, south, west, north, east);
+				}
+			} else {
+				nearest(root, q, south, -180, north, 180);
+			}
+			double capHav = Math.sin(rho / 2) * Math.sin(rho / 2);
+			if (rho >= Math.PI || (q.found == q.k && q.best[q.k - 1] <= capHav))
+				break;
+		}
+
+		if (distKm != null) {
+			for (int i = 0; i < q.found; i++) {
+				distKm[i] = 2 * GeoIndex.EarthRadiusKm * Math.asin(Math.min(1, Math.sqrt(q.best[i])));
+			}
+		}
+		return q.found;
+	}
+
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+	// internals
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+
+	/**
+	 * A cell of the quadtree, a leaf with ids or a node with four children:
+	 * south west, south east, north west, north east
+	 */
+	private static final class Node {
+		final double south, west, north, east;
+		final int depth;
+		Node[] children; // null for a leaf
+		int[] ids; // of a leaf
+		int count; // ids used
+
+		Node(double south, double west, double north, double east, int depth) {
+			this.south = south;
+			this.west = west;
+			this.north = north;
+			this.east = east;
+			this.depth = depth;
+			ids = new int[4];
+		}
+
+		Node leaf(double lat, double lon) {
+			Node node = this;
+			while (node.children != null)
+				node = node.children[node.child(lat, lon)];
+			return node;
+		}
+
+		int child(double lat, double lon) {
+			return (lat >= (south + north) / 2 ? 2 : 0) + (lon >= (west + east) / 2 ? 1 : 0);
+		}
+
+		void add(int id) {
+			if (count == ids.length)
+				ids = Arrays.copyOf(ids, 2 * count);
+			ids[count++] = id;
+		}
+
+		boolean overlaps(double s, double w, double n, double e) {
+			return s <= north && n >= south && w <= east && e >= west;
+		}
+	}
+
+	/** A nearest query's point and the best waypoints found so far */
+	private static final class Search {
+		final double phi, cosPhi, lon;
+		final int k;
+		final int[] ids; // of the best, closest first
+		final double[] best; // haversine of each of ids, ascending
+		int found;
+
+		Search(double lat, double lon, int k, int[] ids) {
+			phi = Math.toRadians(lat);
+			cosPhi = Math.cos(phi);
+			this.lon = lon;
+			this.k = k;
+			this.ids = ids;
+			best = new double[k];
+		}
+	}
+
+	/** moves the ids of a full leaf into four new children */
+	private void split(Node leaf) {
+		double midLat = (leaf.south + leaf.north) / 2, midLon = (leaf.west + leaf.east) / 2;
+		int d = leaf.depth + 1;
+		leaf.children = new Node[] {
+				new Node(leaf.south, leaf.west, midLat, midLon, d),
+				new Node(leaf.south, midLon, midLat, leaf.east, d),
+				new Node(midLat, leaf.west, leaf.north, midLon, d),
+				new Node(midLat, midLon, leaf.north, leaf.east, d) };
+		for (int j = 0; j < leaf.count; j++) {
+			int id = leaf.ids[j];
+			leaf.children[leaf.child(lats[id], lons[id])].add(id);
+		}
+		leaf.ids = null;
+		leaf.count = 0;
+		// all of them may have gone to one child
+		for (Node child : leaf.children) {
+			if (child.count > BUCKET_MAX && child.depth < DEPTH_MAX)
+				split(child);
+		}
+	}
+
+	private static void shift(Node node, int id) {
+		if (node.children != null) {
+			for (Node child : node.children)
+				shift(child, id);
+			return;
+		}
+		for (int j = 0; j < node.count; j++) {
+			if (node.ids[j] > id)
+				node.ids[j]--;
+		}
+	}
+
+	private int inBox(Node node, double south, double west, double north,
+			double east, int[] found, int n) {
+		if (n == found.length || !node.overlaps(south, west, north, east))
+			return n;
+		if (node.children != null) {
+			for (Node child : node.children)
+				n = inBox(child, south, west, north, east, found, n);
+			return n;
+		}
+		for (int j = 0; j < node.count; j++) {
+			int id = node.ids[j];
+			double lat = lats[id], lon = lons[id];
+			if (lat >= south && lat <= north && lon >= west && lon <= east) {
+				if (n == found.length)
+					return n;
+				found[n++] = id;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * offers the waypoints in the box to the search. the two halves of a box
+	 * across the antimeridian don't share any, so none is offered twice
+	 */
+	private void nearest(Node node, Search q, double south, double west,
+			double north, double east) {
+		if (!node.overlaps(south, west, north, east))
+			return;
+		if (node.children != null) {
+			for (Node child : node.children)
+				nearest(child, q, south, west, north, east);
+			return;
+		}
+		int k = q.k;
+		double[] best = q.best;
+		for (int j = 0; j < node.count; j++) {
+			int id = node.ids[j];
+			double lat = lats[id], lon = lons[id];
+			if (lat < south || lat > north || lon < west || lon > east)
+				continue;
+			double h = haversine(q.phi, q.cosPhi, q.lon, lat, lon);
+			if (q.found == k && h >= best[k - 1])
+				continue;
+			int at = q.found == k ? k - 1 : q.found++;
+			while (at > 0 && best[at - 1] > h) {
+				best[at] = best[at - 1];
+				q.ids[at] = q.ids[at - 1];
+				at--;
+			}
+			best[at] = h;
+			q.ids[at] = id;
+		}
+	}
+
+	/**
+	 * The haversine method is sin^2(d / 2) of the angle d between two points,
+	 * it orders them like their distance
+	 */
+	private static double haversine(double phi1, double cosPhi1, double lon1,
+			double lat2, double lon2) {
+		double sinLat = Math.sin((Math.toRadians(lat2) - phi1) / 2);
+		double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+		return sinLat * sinLat + cosPhi1 * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+	}
+}
@@ -0,0 +1,520 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import Provider.GoogleMapsStatic.MapRequest;
+
+/**
+ * The WaypointStore keeps the saved waypoints in memory, indexed by name, and
+ * on disk in the waypoints.txt format, one "name;longitude;latitude" line per
+ * waypoint. The file is read once by {@link #load()}; after that
+ * {@link #add} only queues the new line for a {@link WaypointWriter}, which
+ * appends lines in group commits, so saving costs the same however many
+ * waypoints there are. Names are unique, adding a name that is already taken
+ * is refused instead of writing a second line for it.
+ * <p>
+ * A file whose name ends in {@value #BINARY_SUFFIX} is kept in the binary
+ * {@link WaypointFile} format instead, which is mapped rather than read and
+ * keeps no Waypoint objects in memory. Waypoints removed from a binary file
+ * are only flagged, it is compacted on a background thread once enough of
+ * them pile up.
+ * <p>
+ * {@link #inBox} and {@link #nearest} find waypoints by place through a
+ * {@link WaypointIndex}, made on the first query and kept up to date as
+ * waypoints are added and removed.
+ * <p>
+ * The methods are synchronized, the store is loaded off the EDT at startup.
+ */
+class WaypointStore {
+	static final String SEPARATOR = ";"; // between the fields of a line
+	static final String BINARY_SUFFIX = ".wpb"; // file name ending of the binary format
+
+	private final File file; // the waypoints file
+	private final long flushMillis; // see WaypointWriter
+	private final boolean force; // see WaypointWriter
+	private WaypointWriter writer; // appends to a text file, made on load
+	private WaypointFile binary; // the open binary file, null for a text file
+	private ExecutorService compactor; // compacts the binary file, made when first needed
+	private final WaypointTable table = new WaypointTable(); // a text file's waypoints, in file order
+	private final char[] line = new char[2 * Waypoint.COORDINATE_CHARS_MAX + 2]; // coordinates of a line being rewritten
+	private int skipped; // lines of the file that couldn't be read
+	private int[] live; // record index of each live waypoint of a binary file with deleted records
+	private int liveModCount = -1; // the binary file's modCount live was made for
+	private WaypointIndex index; // where the waypoints are, made by the first query
+	private int indexModCount; // the binary file's modCount index is up to date with
+
+	/**
+	 * WaypointStore constructor, saved waypoints are written within
+	 * FLUSH_MS_DEFAULT but not forced to disk
+	 * @param file the waypoints file, created on load if it doesn't exist
+	 */
+	WaypointStore(File file) {
+		this(file, WaypointWriter.FLUSH_MS_DEFAULT, false);
+	}
+
+	/**
+	 * WaypointStore constructor
+	 * @param file the waypoints file, created on load if it doesn't exist
+	 * @param flushMillis how long a saved waypoint may wait to be written to
+	 *        a text file
+	 * @param force true to force what is written to disk, see
+	 *        {@link WaypointWriter}
+	 */
+	WaypointStore(File file, long flushMillis, boolean force) {
+		this.file = file;
+		this.flushMillis = flushMillis;
+		this.force = force;
+	}
+
+	/**
+	 * The load method reads the whole file, replacing what is in memory.
+	 * Lines that don't have all three fields or whose coordinates aren't
+	 * valid are skipped, and of lines with the same name the last one's
+	 * coordinates count, as they did before names were unique
+	 * @throws IOException when the file can't be created or read
+	 */
+	synchronized void load() throws IOException {
+		if (file.getName().endsWith(BINARY_SUFFIX)) {
+			if (binary != null)
+				binary.close();
+			binary = WaypointFile.open(file);
+			live = null;
+			index = null;
+			return;
+		}
+
+		table.clear();
+		index = null;
+		skipped = 0;
+		if (writer != null)
+			writer.close(); // commits what was saved before the load
+		writer = null;
+		if (file.createNewFile())
+			return;
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] temp = line.split(SEPARATOR);
+				try {
+					// the file has the longitude first
+					table.put(temp[0], Double.parseDouble(temp[2]),
+							Double.parseDouble(temp[1]));
+				} catch (RuntimeException e) {
+					// too few fields, not a number or out of range
+					if (line.length() > 0)
+						skipped++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The add method saves a new waypoint. For a text file its line is
+	 * queued, it is appended with the next group commit
+	 * @param wp the waypoint, its name must not contain the separator
+	 * @return false if there already is a waypoint with that name, in which
+	 *         case nothing is written
+	 * @throws IOException when the file can't be written
+	 */
+	synchronized boolean add(Waypoint wp) throws IOException {
+		String name = wp.getName();
+		if (!isValidName(name))
+			throw new IllegalArgumentException("a waypoint name can't be empty or contain '"
+					+ SEPARATOR + "' or a line break");
+		if (contains(name))
+			return false;
+
+		append(name, wp.getLat(), wp.getLong());
+		return true;
+	}
+
+	/**
+	 * The addAll method saves a batch of new waypoints, for imports.
+	 * Waypoints whose name is taken, also by an earlier one of the batch, are
+	 * left out
+	 * @param names the names, each must pass {@link #isValidName}
+	 * @param lats the latitudes, already checked
+	 * @param lons the longitudes, already checked
+	 * @param n how many of the arrays to save
+	 * @return how many were saved
+	 * @throws IOException when the file can't be written
+	 */
+	synchronized int addAll(String[] names, double[] lats, double[] lons, int n)
+			throws IOException {
+		int added = 0;
+		for (int i = 0; i < n; i++) {
+			if (!contains(names[i])) {
+				append(names[i], lats[i], lons[i]);
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * The Visitor interface is called by {@link WaypointStore#forEach} with
+	 * each waypoint's fields
+	 */
+	interface Visitor {
+		void visit(String name, double lat, double lon) throws IOException;
+	}
+
+	/**
+	 * The forEach method passes every waypoint to the visitor, in the order
+	 * they were saved, without making Waypoint objects. The store is only
+	 * locked while the waypoints are copied (a text file's arrays, a binary
+	 * file's mapping, see {@link WaypointFile#forEach}), not while they are
+	 * visited, so a slow visitor doesn't hold up saving or the waypoint box
+	 * @throws IOException when the visitor throws it
+	 */
+	void forEach(Visitor v) throws IOException {
+		WaypointFile wf;
+		String[] names = null;
+		double[] lats = null, lons = null;
+		synchronized (this) {
+			wf = binary;
+			if (wf == null) {
+				names = table.copyNames();
+				lats = table.copyLats();
+				lons = table.copyLons();
+			}
+		}
+		if (wf != null) {
+			wf.forEach(v);
+			return;
+		}
+		for (int i = 0; i < names.length; i++) {
+			v.visit(names[i], lats[i], lons[i]);
+		}
+	}
+
+	/**
+	 * @return true if the name can be saved, it isn't empty and has no
+	 *         separator or line break
+	 */
+	static boolean isValidName(String name) {
+		return name.length() > 0 && !name.contains(SEPARATOR)
+				&& name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+	}
+
+	/**
+	 * @return the waypoint with that name, or null
+	 */
+	synchronized Waypoint get(String name) {
+		if (binary != null)
+			return binary.get(name);
+		int i = table.indexOf(name);
+		return i < 0 ? null : new Waypoint(name, table.getLat(i), table.getLon(i));
+	}
+
+	/**
+	 * @return true if a waypoint with that name is saved
+	 */
+	synchronized boolean contains(String name) {
+		if (binary != null)
+			return binary.indexOf(name) >= 0;
+		return table.indexOf(name) >= 0;
+	}
+
+	/**
+	 * The remove method deletes a waypoint. A text file is rewritten without
+	 * it; in a binary file it is flagged and compacted away later
+	 * @return false if there is no waypoint with that name
+	 * @throws IOException when the file can't be written
+	 */
+	synchronized boolean remove(String name) throws IOException {
+		if (binary != null) {
+			synchronized (binary) { // no compaction in between
+				int before = binary.getModCount();
+				int i = binary.delete(name);
+				if (i < 0)
+					return false;
+				if (index != null && before == indexModCount) {
+					index.remove(i);
+					indexModCount = binary.getModCount();
+				}
+			}
+			if (binary.needsCompaction())
+				compactInBackground();
+			return true;
+		}
+
+		int i = table.indexOf(name);
+		if (i < 0)
+			return false;
+		table.remove(i);
+		if (index != null)
+			index.removeShifting(i); // the waypoints after it moved down
+
+		// the queued lines are in table too, the rewrite takes the place of
+		// their commit
+		if (writer != null)
+			writer.close();
+		writer = null;
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		Writer out = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
+		try {
+			for (int j = 0; j < table.size(); j++) {
+				WaypointWriter.writeLine(out, line, table.getName(j),
+						table.getLat(j), table.getLon(j));
+			}
+			out.flush();
+			if (force)
+				fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+			throw new IOException("couldn't replace " + file);
+		return true;
+	}
+
+	/**
+	 * The flush method writes what was saved so far, without waiting for the
+	 * flush interval, and forces a binary file to disk
+	 * @throws IOException when it can't be written
+	 */
+	synchronized void flush() throws IOException {
+		if (binary != null)
+			binary.force();
+		else if (writer != null)
+			writer.flush();
+	}
+
+	/**
+	 * The close method writes what was saved so far and closes the file
+	 */
+	synchronized void close() throws IOException {
+		if (compactor != null)
+			compactor.shutdown();
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+		if (binary != null) {
+			binary.close();
+			binary = null;
+		}
+	}
+
+	/**
+	 * @return the names of all waypoints, in the order they were saved
+	 */
+	synchronized String[] getNames() {
+		if (binary != null) {
+			synchronized (binary) { // no compaction in between
+				String[] names = new String[binary.liveCount()];
+				for (int i = 0, n = 0; i < binary.size(); i++) {
+					if (!binary.isDeleted(i))
+						names[n++] = binary.getName(i);
+				}
+				return names;
+			}
+		}
+		return table.copyNames();
+	}
+
+	/**
+	 * The getName method gets a waypoint's name by its place in
+	 * {@link #getNames()}, without copying the others
+	 * @param i from 0 to size() - 1
+	 */
+	synchronized String getName(int i) {
+		if (binary == null)
+			return table.getName(i);
+		synchronized (binary) { // no compaction in between
+			if (binary.liveCount() == binary.size())
+				return binary.getName(i);
+			if (live == null || liveModCount != binary.getModCount()) {
+				liveModCount = binary.getModCount();
+				live = new int[binary.liveCount()];
+				for (int j = 0, n = 0; j < binary.size(); j++) {
+					if (!binary.isDeleted(j))
+						live[n++] = j;
+				}
+			}
+			if (i < 0 || i >= live.length)
+				throw new IndexOutOfBoundsException("waypoint " + i + " of " + live.length);
+			return binary.getName(live[i]);
+		}
+	}
+
+	/**
+	 * The inBox method finds the waypoints inside a box of latitude and
+	 * longitude, eg. the map in view, see {@link MapRequest#getBounds()}. A
+	 * box crossing the antimeridian has west greater than east
+	 * @param limit the most names to return
+	 * @return the names of the waypoints in the box, in no particular order
+	 */
+	synchronized String[] inBox(double south, double west, double north,
+			double east, int limit) {
+		synchronized (binary != null ? binary : this) { // no compaction in between
+			int[] ids = new int[limit];
+			int n = index().inBox(south, west, north, east, ids);
+			return names(ids, n);
+		}
+	}
+
+	/**
+	 * The countInBox method counts the waypoints inside a box like
+	 * {@link #inBox}, without getting their names
+	 * @param limit the most to count
+	 * @return how many are in the box, at most limit
+	 */
+	synchronized int countInBox(double south, double west, double north,
+			double east, int limit) {
+		synchronized (binary != null ? binary : this) {
+			return index().inBox(south, west, north, east, new int[limit]);
+		}
+	}
+
+	/**
+	 * The nearest method finds the waypoints closest to a point, eg. the map
+	 * center
+	 * @param k how many to find
+	 * @param distKm null, or filled with the great circle distance of each
+	 * @return the names of the nearest k waypoints, or all of them if there
+	 *         are fewer, closest first
+	 */
+	synchronized String[] nearest(double lat, double lon, int k, double[] distKm) {
+		synchronized (binary != null ? binary : this) {
+			int[] ids = new int[k];
+			int n = index().nearest(lat, lon, ids, distKm);
+			return names(ids, n);
+		}
+	}
+
+	/**
+	 * The buildIndex method makes the index the queries use now, instead of
+	 * on the first query, eg. off the EDT after the load
+	 */
+	synchronized void buildIndex() {
+		synchronized (binary != null ? binary : this) {
+			index();
+		}
+	}
+
+	synchronized int size() {
+		return binary != null ? binary.liveCount() : table.size();
+	}
+
+	/**
+	 * @return how many lines the last load couldn't read
+	 */
+	synchronized int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * The append method saves a waypoint whose name isn't taken, and adds it
+	 * to the index if there is one
+	 */
+	private void append(String name, double lat, double lon) throws IOException {
+		if (binary != null) {
+			synchronized (binary) { // no compaction in between
+				int before = binary.getModCount();
+				int i = binary.append(name, lat, lon);
+				// growing the file moves the records
+				if (index != null && before == indexModCount
+						&& binary.getModCount() == before + 1) {
+					index.add(i, lat, lon);
+					indexModCount++;
+				} else {
+					index = null;
+				}
+			}
+			return;
+		}
+
+		writer().write(name, lat, lon);
+		int i = table.put(name, lat, lon);
+		if (index != null)
+			index.add(i, lat, lon);
+	}
+
+	/**
+	 * @return the index, made if there is none or the binary file changed
+	 *         under it. Must hold the binary file's lock
+	 */
+	private WaypointIndex index() {
+		if (binary != null && index != null && indexModCount != binary.getModCount())
+			index = null; // compacted
+		if (index == null) {
+			index = new WaypointIndex();
+			if (binary != null) {
+				for (int i = 0; i < binary.size(); i++) {
+					if (!binary.isDeleted(i))
+						index.add(i, binary.getLat(i), binary.getLon(i));
+				}
+				indexModCount = binary.getModCount();
+			} else {
+				for (int i = 0; i < table.size(); i++) {
+					index.add(i, table.getLat(i), table.getLon(i));
+				}
+			}
+		}
+		return index;
+	}
+
+	private String[] names(int[] ids, int n) {
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++) {
+			names[i] = binary != null ? binary.getName(ids[i]) : table.getName(ids[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * @return the writer of the text file, opened when first needed
+	 */
+	private WaypointWriter writer() throws IOException {
+		if (writer == null)
+			writer = new WaypointWriter(file, flushMillis, force);
+		return writer;
+	}
+
+	/**
+	 * The compactInBackground method queues a compaction of the binary file
+	 * on the compactor thread. Readers only wait for the end of it, when it
+	 * catches up and switches files, see {@link WaypointFile#compact()}
+	 */
+	private void compactInBackground() {
+		if (compactor == null)
+			compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "WaypointCompactor");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		final WaypointFile wf = binary;
+		compactor.execute(new Runnable() {
+			public void run() {
+				try {
+					if (wf.needsCompaction())
+						wf.compact();
+				} catch (IOException e) {
+					// the deleted records stay flagged, the next delete tries again
+				}
+			}
+		});
+	}
+}
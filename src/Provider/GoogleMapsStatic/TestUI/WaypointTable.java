@@ -0,0 +1,132 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.util.Arrays;
+
+/**
+ * The WaypointTable holds waypoints as parallel arrays, a name array and two
+ * double arrays, instead of one object per waypoint, so bulk work (sorting by
+ * distance, building a spatial index, exporting) runs over primitive arrays.
+ * Names are unique and found through an open addressing table of indexes.
+ * <p>
+ * It isn't synchronized, {@link WaypointStore} guards it.
+ */
+class WaypointTable {
+	static final int CAPACITY_DEFAULT = 64;
+
+	private String[] names = new String[CAPACITY_DEFAULT];
+	private double[] lats = new double[CAPACITY_DEFAULT];
+	private double[] lons = new double[CAPACITY_DEFAULT];
+	private int size;
+	private int[] slots = new int[2 * CAPACITY_DEFAULT]; // index + 1, 0 is empty
+
+	int size() {
+		return size;
+	}
+
+	String getName(int i) {
+		return names[check(i)];
+	}
+
+	double getLat(int i) {
+		return lats[check(i)];
+	}
+
+	double getLon(int i) {
+		return lons[check(i)];
+	}
+
+	/**
+	 * @return the index of the waypoint with that name, or -1
+	 */
+	int indexOf(String name) {
+		int mask = slots.length - 1;
+		for (int slot = spread(name.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+			if (names[slots[slot] - 1].equals(name))
+				return slots[slot] - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * The put method adds a waypoint at the end, or changes the coordinates
+	 * of the one with the same name where it is
+	 * @return its index
+	 */
+	int put(String name, double lat, double lon) {
+		Waypoint.checkCoordinates(lat, lon);
+		int i = indexOf(name);
+		if (i < 0) {
+			if (size == names.length) {
+				int capacity = 2 * size;
+				names = Arrays.copyOf(names, capacity);
+				lats = Arrays.copyOf(lats, capacity);
+				lons = Arrays.copyOf(lons, capacity);
+				rehash(2 * capacity);
+			}
+			i = size++;
+			names[i] = name;
+			slot(i);
+		}
+		lats[i] = lat;
+		lons[i] = lon;
+		return i;
+	}
+
+	/**
+	 * The remove method takes a waypoint out, the ones after it move down one
+	 */
+	void remove(int i) {
+		check(i);
+		System.arraycopy(names, i + 1, names, i, size - i - 1);
+		System.arraycopy(lats, i + 1, lats, i, size - i - 1);
+		System.arraycopy(lons, i + 1, lons, i, size - i - 1);
+		names[--size] = null;
+		rehash(slots.length);
+	}
+
+	void clear() {
+		Arrays.fill(names, 0, size, null);
+		Arrays.fill(slots, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return a copy of the names, in order
+	 */
+	String[] copyNames() {
+		return Arrays.copyOf(names, size);
+	}
+
+	double[] copyLats() {
+		return Arrays.copyOf(lats, size);
+	}
+
+	double[] copyLons() {
+		return Arrays.copyOf(lons, size);
+	}
+
+	private int check(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("waypoint " + i + " of " + size);
+		return i;
+	}
+
+	private void rehash(int length) {
+		slots = new int[length];
+		for (int i = 0; i < size; i++) {
+			slot(i);
+		}
+	}
+
+	private void slot(int i) {
+		int mask = slots.length - 1;
+		int slot = spread(names[i].hashCode()) & mask;
+		while (slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = i + 1;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,842 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The WaypointTransfer imports waypoints into a {@link WaypointStore} and
+ * exports them from it in bulk, as CSV, GeoJSON or GPX. Files are streamed
+ * through fixed size buffers, so they can be bigger than memory.
+ * <p>
+ * Importing reads the file on the calling thread and only cuts it into
+ * records (a CSV line, a GeoJSON feature, a GPX wpt element). Chunks of
+ * CHUNK_RECORDS records are parsed on a pool of threads, one per processor,
+ * and saved in file order with one {@link WaypointStore#addAll} each. At most
+ * CHUNKS_IN_FLIGHT chunks per parser thread are read ahead of the store.
+ * <p>
+ * The readers handle what mapping tools write, not every corner of XML and
+ * JSON: CSV has one record per line, with a header naming the name, lat and
+ * lon columns or else those three in that order; GeoJSON waypoints are Point
+ * features in a FeatureCollection with a "name" property; GPX waypoints are
+ * wpt elements with lat and lon attributes and a name element. Records that
+ * don't parse, or whose name can't be saved, are counted as invalid.
+ */
+class WaypointTransfer {
+	static final int CHUNK_RECORDS = 4096; // records parsed and saved together
+	static final int CHUNKS_IN_FLIGHT = 2; // read ahead per parser thread
+	static final int BUFFER_CHARS = 1 << 16; // file buffer size
+
+	/**
+	 * The Format enum lists the file formats, picked by file name ending
+	 */
+	enum Format {
+		CSV, GEOJSON, GPX;
+
+		/**
+		 * @throws IllegalArgumentException for an unknown file name ending
+		 */
+		static Format forFile(File f) {
+			String name = f.getName().toLowerCase(Locale.ROOT);
+			if (name.endsWith(".csv"))
+				return CSV;
+			if (name.endsWith(".geojson") || name.endsWith(".json"))
+				return GEOJSON;
+			if (name.endsWith(".gpx"))
+				return GPX;
+			throw new IllegalArgumentException(f.getName()
+					+ " isn't a .csv, .geojson or .gpx file");
+		}
+	}
+
+	/**
+	 * The Result class counts what an import or export did
+	 */
+	static class Result {
+		int read; // records read
+		int saved; // waypoints added to the store, or written
+		int invalid; // records that couldn't be parsed
+		long millis; // how long it took
+
+		/**
+		 * @return records read with a name that was already saved
+		 */
+		int getDuplicates() {
+			return read - invalid - saved;
+		}
+
+		public String toString() {
+			return read + " read, " + saved + " saved, " + getDuplicates()
+					+ " duplicates, " + invalid + " invalid in " + millis + "ms ("
+					+ (millis == 0 ? read : read * 1000L / millis) + "/s)";
+		}
+	}
+
+	/**
+	 * The importFile method adds the waypoints of a file to the store
+	 * @param in a .csv, .geojson or .gpx file, UTF-8
+	 * @throws IOException when the file can't be read or the store written
+	 */
+	static Result importFile(File in, WaypointStore store) throws IOException {
+		Format format = Format.forFile(in);
+		Reader r = new InputStreamReader(new FileInputStream(in), "UTF-8");
+		try {
+			return importFrom(r, format, store);
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * The importFrom method adds the waypoints read from in to the store.
+	 * Waypoints whose name is already saved, also by an earlier record, are
+	 * left out. What was saved before an exception stays saved
+	 * @throws IOException when in can't be read, isn't in the format, or the
+	 *         store can't be written
+	 */
+	static Result importFrom(Reader in, Format format, WaypointStore store)
+			throws IOException {
+		long start = System.currentTimeMillis();
+		final Records records = format == Format.CSV ? new CsvRecords(in)
+				: format == Format.GEOJSON ? new GeoJsonRecords(in)
+						: new GpxRecords(in);
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService parsers = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "WaypointParser");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+		Result result = new Result();
+		try {
+			boolean more = true;
+			while (more) {
+				final Chunk chunk = new Chunk();
+				String record = null;
+				while (chunk.n < CHUNK_RECORDS && (record = records.next()) != null) {
+					chunk.records[chunk.n++] = record;
+				}
+				more = record != null;
+				if (chunk.n == 0)
+					break;
+				inFlight.add(parsers.submit(new Callable<Chunk>() {
+					public Chunk call() {
+						chunk.parse(records);
+						return chunk;
+					}
+				}));
+				if (inFlight.size() >= CHUNKS_IN_FLIGHT * threads)
+					save(inFlight.poll(), store, result);
+			}
+			while (!inFlight.isEmpty()) {
+				save(inFlight.poll(), store, result);
+			}
+		} finally {
+			parsers.shutdownNow();
+		}
+		result.millis = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	/**
+	 * The exportFile method writes all waypoints of the store to a file
+	 * @param out a .csv, .geojson or .gpx file, written as UTF-8
+	 * @throws IOException when the file can't be written
+	 */
+	static Result exportFile(WaypointStore store, File out) throws IOException {
+		Format format = Format.forFile(out);
+		Writer w = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(out), "UTF-8"), BUFFER_CHARS);
+		try {
+			return exportTo(store, w, format);
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * The exportTo method writes all waypoints of the store to out, in the
+	 * order they were saved. The store isn't locked while out is written, see
+	 * {@link WaypointStore#forEach}
+	 * @param out should be buffered, it is written a field at a time
+	 * @throws IOException when out can't be written
+	 */
+	static Result exportTo(WaypointStore store, final Writer out,
+			final Format format) throws IOException {
+		long start = System.currentTimeMillis();
+		final Result result = new Result();
+		final char[] buf = new char[Waypoint.COORDINATE_CHARS_MAX];
+
+		if (format == Format.CSV)
+			out.write("name,lat,lon\n");
+		else if (format == Format.GEOJSON)
+			out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+		else
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<gpx version=\"1.1\" creator=\"SampleApp\""
+					+ " xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+
+		store.forEach(new WaypointStore.Visitor() {
+			public void visit(String name, double lat, double lon)
+					throws IOException {
+				if (format == Format.CSV) {
+					writeCsv(out, name);
+					out.write(',');
+					out.write(buf, 0, Waypoint.formatCoordinate(lat, buf, 0));
+					out.write(',');
+					out.write(buf, 0, Waypoint.formatCoordinate(lon, buf, 0));
+					out.write('\n');
+				} else if (format == Format.GEOJSON) {
+					out.write(result.saved == 0 ? "\n" : ",\n");
+					out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+					out.write(buf, 0, Waypoint.formatCoordinate(lon, buf, 0));
+					out.write(',');
+					out.write(buf, 0, Waypoint.formatCoordinate(lat, buf, 0));
+					out.write("]},\"properties\":{\"name\":");
+					writeJson(out, name);
+					out.write("}}");
+				} else {
+					out.write("<wpt lat=\"");
+					out.write(buf, 0, Waypoint.formatCoordinate(lat, buf, 0));
+					out.write("\" lon=\"");
+					out.write(buf, 0, Waypoint.formatCoordinate(lon, buf, 0));
+					out.write("\"><name>");
+					writeXml(out, name);
+					out.write("</name></wpt>\n");
+				}
+				result.saved++;
+			}
+		});
+
+		if (format == Format.GEOJSON)
+			out.write("\n]}\n");
+		else if (format == Format.GPX)
+			out.write("</gpx>\n");
+		out.flush();
+		result.read = result.saved;
+		result.millis = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	/**
+	 * The main method converts between a waypoints file and the other
+	 * formats from the command line, and reports how fast it went
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3
+				|| !(args[0].equals("import") || args[0].equals("export"))) {
+			System.err.println("usage: WaypointTransfer import <in.csv|geojson|gpx> <waypoints.txt|wpb>");
+			System.err.println("       WaypointTransfer export <waypoints.txt|wpb> <out.csv|geojson|gpx>");
+			System.exit(1);
+		}
+		boolean importing = args[0].equals("import");
+		WaypointStore store = new WaypointStore(new File(importing ? args[2] : args[1]));
+		store.load();
+		try {
+			Result result = importing ? importFile(new File(args[1]), store)
+					: exportFile(store, new File(args[2]));
+			System.out.println(args[0] + ": " + result);
+		} finally {
+			store.close();
+		}
+	}
+
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+	// internals
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+
+	/**
+	 * The save method waits for a parsed chunk and adds it to the store
+	 */
+	private static void save(Future<Chunk> parsed, WaypointStore store,
+			Result result) throws IOException {
+		Chunk chunk;
+		try {
+			chunk = parsed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("import interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw (Error) e.getCause();
+		}
+		result.read += chunk.n;
+		result.invalid += chunk.n - chunk.parsed;
+		result.saved += store.addAll(chunk.names, chunk.lats, chunk.lons,
+				chunk.parsed);
+	}
+
+	private static void writeCsv(Writer out, String s) throws IOException {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0) {
+			out.write(s);
+			return;
+		}
+		out.write('"');
+		out.write(s.replace("\"", "\"\""));
+		out.write('"');
+	}
+
+	private static void writeJson(Writer out, String s) throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < 0x20) {
+				out.write(String.format("\\u%04x", (int) c));
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+
+	private static void writeXml(Writer out, String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '&')
+				out.write("&amp;");
+			else if (c == '<')
+				out.write("&lt;");
+			else if (c == '>')
+				out.write("&gt;");
+			else
+				out.write(c);
+		}
+	}
+
+	/**
+	 * The Chunk class is a batch of records, and the waypoints parsed from
+	 * them as parallel arrays
+	 */
+	private static class Chunk {
+		final String[] records = new String[CHUNK_RECORDS];
+		final String[] names = new String[CHUNK_RECORDS];
+		final double[] lats = new double[CHUNK_RECORDS];
+		final double[] lons = new double[CHUNK_RECORDS];
+		int n; // records
+		int parsed; // waypoints
+
+		void parse(Records parser) {
+			for (int i = 0; i < n; i++) {
+				try {
+					if (parser.parse(records[i], this)) {
+						Waypoint.checkCoordinates(lats[parsed], lons[parsed]);
+						if (WaypointStore.isValidName(names[parsed]))
+							parsed++;
+					}
+				} catch (RuntimeException e) {
+					// not a number, out of range or missing a field
+				}
+				records[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * The Records class cuts a file into records on the reading thread and
+	 * parses them on the parser threads, so parse must only read its fields
+	 */
+	private static abstract class Records {
+		private final Reader in;
+		private final char[] buf = new char[BUFFER_CHARS];
+		private int pos, end;
+
+		Records(Reader in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return the next record, or null at the end
+		 */
+		abstract String next() throws IOException;
+
+		/**
+		 * The parse method puts the waypoint of a record at chunk.parsed in
+		 * the chunk's arrays
+		 * @return false if the record holds no waypoint
+		 */
+		abstract boolean parse(String record, Chunk chunk);
+
+		/**
+		 * @return the next char, or -1 at the end
+		 */
+		final int read() throws IOException {
+			if (pos == end) {
+				end = in.read(buf, 0, buf.length);
+				pos = 0;
+				if (end <= 0) {
+					end = 0;
+					return -1;
+				}
+			}
+			return buf[pos++];
+		}
+
+		/**
+		 * The skipPast method reads up to and including s, whose first char
+		 * must not occur again in it
+		 * @return false if the end came first
+		 */
+		final boolean skipPast(String s) throws IOException {
+			int matched = 0;
+			while (matched < s.length()) {
+				int c = read();
+				if (c < 0)
+					return false;
+				if (c == s.charAt(matched))
+					matched++;
+				else
+					matched = c == s.charAt(0) ? 1 : 0;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the next char that isn't white space, or -1
+		 */
+		final int readNonSpace() throws IOException {
+			int c;
+			do {
+				c = read();
+			} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+			return c;
+		}
+	}
+
+	/**
+	 * The CsvRecords class reads a line per record. Quoted fields may hold
+	 * commas and doubled quotes, but not line breaks
+	 */
+	private static class CsvRecords extends Records {
+		private final StringBuilder line = new StringBuilder();
+		private boolean first = true;
+		private int nameColumn = 0, latColumn = 1, lonColumn = 2;
+
+		CsvRecords(Reader in) {
+			super(in);
+		}
+
+		String next() throws IOException {
+			String s;
+			do {
+				s = readLine();
+				if (s != null && first) {
+					first = false;
+					if (readHeader(s))
+						s = "";
+				}
+			} while (s != null && s.length() == 0);
+			return s;
+		}
+
+		boolean parse(String record, Chunk chunk) {
+			List<String> fields = split(record);
+			chunk.names[chunk.parsed] = fields.get(nameColumn).trim();
+			chunk.lats[chunk.parsed] = Double.parseDouble(fields.get(latColumn).trim());
+			chunk.lons[chunk.parsed] = Double.parseDouble(fields.get(lonColumn).trim());
+			return true;
+		}
+
+		private String readLine() throws IOException {
+			line.setLength(0);
+			int c;
+			while ((c = read()) >= 0 && c != '\n') {
+				if (c != '\r')
+					line.append((char) c);
+			}
+			return c < 0 && line.length() == 0 ? null : line.toString();
+		}
+
+		/**
+		 * @return true if the line is a header, then the columns are taken
+		 *         from it
+		 */
+		private boolean readHeader(String s) {
+			List<String> fields = split(s);
+			int name = -1, lat = -1, lon = -1;
+			for (int i = 0; i < fields.size(); i++) {
+				String f = fields.get(i).trim().toLowerCase(Locale.ROOT);
+				if (f.equals("name") || f.equals("title"))
+					name = i;
+				else if (f.equals("lat") || f.equals("latitude"))
+					lat = i;
+				else if (f.equals("lon") || f.equals("lng") || f.equals("long")
+						|| f.equals("longitude"))
+					lon = i;
+			}
+			if (name < 0 || lat < 0 || lon < 0)
+				return false;
+			nameColumn = name;
+			latColumn = lat;
+			lonColumn = lon;
+			return true;
+		}
+
+		private static List<String> split(String s) {
+			List<String> fields = new ArrayList<String>(4);
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (quoted) {
+					if (c != '"')
+						field.append(c);
+					else if (i + 1 < s.length() && s.charAt(i + 1) == '"')
+						field.append(s.charAt(i++));
+					else
+						quoted = false;
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else {
+					field.append(c);
+				}
+			}
+			fields.add(field.toString());
+			return fields;
+		}
+	}
+
+	/**
+	 * The GeoJsonRecords class reads each object of the "features" array as
+	 * a record and parses it with {@link Json}
+	 */
+	private static class GeoJsonRecords extends Records {
+		private final StringBuilder feature = new StringBuilder();
+		private boolean started, done;
+
+		GeoJsonRecords(Reader in) {
+			super(in);
+		}
+
+		String next() throws IOException {
+			if (done)
+				return null;
+			if (!started) {
+				started = true;
+				if (!skipPast("\"features\"") || readNonSpace() != ':'
+						|| readNonSpace() != '[')
+					throw new IOException("no \"features\" array, not a GeoJSON FeatureCollection");
+			}
+			int c;
+			do {
+				c = readNonSpace();
+			} while (c == ',');
+			if (c == ']') {
+				done = true;
+				return null;
+			}
+			if (c != '{')
+				throw new IOException("expected a feature but found "
+						+ (c < 0 ? "the end" : "'" + (char) c + "'"));
+
+			// up to the matching brace, braces in strings don't count
+			feature.setLength(0);
+			feature.append('{');
+			int depth = 1;
+			boolean string = false;
+			while (depth > 0) {
+				c = read();
+				if (c < 0)
+					throw new IOException("the file ends inside a feature");
+				feature.append((char) c);
+				if (string) {
+					if (c == '\\')
+						feature.append((char) read());
+					else if (c == '"')
+						string = false;
+				} else if (c == '"') {
+					string = true;
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					depth--;
+				}
+			}
+			return feature.toString();
+		}
+
+		boolean parse(String record, Chunk chunk) {
+			Map<?, ?> f = (Map<?, ?>) new Json(record).value();
+			Map<?, ?> geometry = (Map<?, ?>) f.get("geometry");
+			if (geometry == null || !"Point".equals(geometry.get("type")))
+				return false;
+			List<?> coordinates = (List<?>) geometry.get("coordinates");
+			Map<?, ?> properties = (Map<?, ?>) f.get("properties");
+			chunk.names[chunk.parsed] = ((String) properties.get("name")).trim();
+			chunk.lons[chunk.parsed] = ((Double) coordinates.get(0)).doubleValue();
+			chunk.lats[chunk.parsed] = ((Double) coordinates.get(1)).doubleValue();
+			return true;
+		}
+	}
+
+	/**
+	 * The GpxRecords class reads each wpt element as a record
+	 */
+	private static class GpxRecords extends Records {
+		private final StringBuilder wpt = new StringBuilder();
+
+		GpxRecords(Reader in) {
+			super(in);
+		}
+
+		String next() throws IOException {
+			int c;
+			do {
+				if (!skipPast("<wpt"))
+					return null;
+				c = read();
+			} while (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '>');
+
+			wpt.setLength(0);
+			wpt.append("<wpt").append((char) c);
+			boolean inTag = c != '>';
+			int prev = c;
+			while ((c = read()) >= 0) {
+				wpt.append((char) c);
+				if (c == '>') {
+					if (inTag && prev == '/')
+						break; // <wpt .../>
+					inTag = false;
+					if (endsWith(wpt, "</wpt>"))
+						break;
+				}
+				prev = c;
+			}
+			return wpt.toString();
+		}
+
+		boolean parse(String record, Chunk chunk) {
+			String tag = record.substring(0, record.indexOf('>'));
+			chunk.lats[chunk.parsed] = Double.parseDouble(attribute(tag, "lat"));
+			chunk.lons[chunk.parsed] = Double.parseDouble(attribute(tag, "lon"));
+			int from = record.indexOf("<name>");
+			int to = record.indexOf("</name>");
+			if (from < 0 || to < from)
+				return false;
+			String name = record.substring(from + "<name>".length(), to).trim();
+			if (name.startsWith("<![CDATA[") && name.endsWith("]]>"))
+				name = name.substring("<![CDATA[".length(), name.length() - "]]>".length());
+			else
+				name = unescape(name);
+			chunk.names[chunk.parsed] = name.trim();
+			return true;
+		}
+
+		private static boolean endsWith(StringBuilder sb, String s) {
+			int at = sb.length() - s.length();
+			if (at < 0)
+				return false;
+			for (int i = 0; i < s.length(); i++) {
+				if (sb.charAt(at + i) != s.charAt(i))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the value of the attribute in a start tag
+		 * @throws IllegalArgumentException when it has no such attribute
+		 */
+		private static String attribute(String tag, String name) {
+			for (int i = tag.indexOf(name); i > 0; i = tag.indexOf(name, i + 1)) {
+				if (!Character.isWhitespace(tag.charAt(i - 1)))
+					continue;
+				int j = i + name.length();
+				while (j < tag.length() && Character.isWhitespace(tag.charAt(j)))
+					j++;
+				if (j == tag.length() || tag.charAt(j) != '=')
+					continue;
+				j++;
+				while (j < tag.length() && Character.isWhitespace(tag.charAt(j)))
+					j++;
+				if (j == tag.length())
+					break;
+				char quote = tag.charAt(j);
+				int end = tag.indexOf(quote, j + 1);
+				if ((quote != '"' && quote != '\'') || end < 0)
+					break;
+				return tag.substring(j + 1, end);
+			}
+			throw new IllegalArgumentException("no " + name + " attribute");
+		}
+
+		private static String unescape(String s) {
+			int amp = s.indexOf('&');
+			if (amp < 0)
+				return s;
+			StringBuilder sb = new StringBuilder(s.length());
+			sb.append(s, 0, amp);
+			for (int i = amp; i < s.length(); i++) {
+				char c = s.charAt(i);
+				int semi = c == '&' ? s.indexOf(';', i) : -1;
+				if (semi < 0) {
+					sb.append(c);
+					continue;
+				}
+				String entity = s.substring(i + 1, semi);
+				if (entity.equals("amp"))
+					sb.append('&');
+				else if (entity.equals("lt"))
+					sb.append('<');
+				else if (entity.equals("gt"))
+					sb.append('>');
+				else if (entity.equals("quot"))
+					sb.append('"');
+				else if (entity.equals("apos"))
+					sb.append('\'');
+				else if (entity.startsWith("#x"))
+					sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+				else if (entity.startsWith("#"))
+					sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+				else
+					throw new IllegalArgumentException("unknown entity &" + entity + ";");
+				i = semi;
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * The Json class parses one JSON value into maps, lists, strings,
+	 * doubles, booleans and nulls
+	 */
+	private static class Json {
+		private final String s;
+		private int i;
+
+		Json(String s) {
+			this.s = s;
+		}
+
+		Object value() {
+			space();
+			char c = s.charAt(i);
+			if (c == '{') {
+				Map<String, Object> map = new HashMap<String, Object>();
+				i++;
+				space();
+				if (s.charAt(i) == '}') {
+					i++;
+					return map;
+				}
+				do {
+					space();
+					String key = string();
+					space();
+					expect(':');
+					map.put(key, value());
+					space();
+					c = s.charAt(i++);
+				} while (c == ',');
+				if (c != '}')
+					throw new IllegalArgumentException("expected '}' at " + i);
+				return map;
+			}
+			if (c == '[') {
+				List<Object> list = new ArrayList<Object>();
+				i++;
+				space();
+				if (s.charAt(i) == ']') {
+					i++;
+					return list;
+				}
+				do {
+					list.add(value());
+					space();
+					c = s.charAt(i++);
+				} while (c == ',');
+				if (c != ']')
+					throw new IllegalArgumentException("expected ']' at " + i);
+				return list;
+			}
+			if (c == '"')
+				return string();
+			if (s.startsWith("true", i)) {
+				i += 4;
+				return Boolean.TRUE;
+			}
+			if (s.startsWith("false", i)) {
+				i += 5;
+				return Boolean.FALSE;
+			}
+			if (s.startsWith("null", i)) {
+				i += 4;
+				return null;
+			}
+			int start = i;
+			while (i < s.length() && "+-0123456789.eE".indexOf(s.charAt(i)) >= 0)
+				i++;
+			return Double.valueOf(s.substring(start, i));
+		}
+
+		private String string() {
+			expect('"');
+			StringBuilder sb = null;
+			int start = i;
+			while (true) {
+				char c = s.charAt(i++);
+				if (c == '"')
+					break;
+				if (c != '\\') {
+					if (sb != null)
+						sb.append(c);
+					continue;
+				}
+				if (sb == null)
+					sb = new StringBuilder().append(s, start, i - 1);
+				c = s.charAt(i++);
+				switch (c) {
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+					i += 4;
+					break;
+				default: sb.append(c);
+				}
+			}
+			return sb == null ? s.substring(start, i - 1) : sb.toString();
+		}
+
+		private void space() {
+			while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+				i++;
+		}
+
+		private void expect(char c) {
+			if (s.charAt(i++) != c)
+				throw new IllegalArgumentException("expected '" + c + "' at " + i);
+		}
+	}
+}
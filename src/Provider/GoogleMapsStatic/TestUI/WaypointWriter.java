@@ -0,0 +1,273 @@
+package Provider.GoogleMapsStatic.TestUI;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * The WaypointWriter appends "name;longitude;latitude" lines to a waypoints
+ * text file on a background thread, in group commits. {@link #write} only
+ * adds the line to a pending buffer; the writer thread waits up to the flush
+ * interval for more lines to join it, then writes them all with one write
+ * and, if asked to, one {@link FileChannel#force}. The file stays open, so a
+ * save costs neither an open nor a close, and a crash loses at most the lines
+ * of one flush interval.
+ * <p>
+ * When PENDING_CHARS_MAX chars are pending, write waits for the writer
+ * thread, so bulk saves can't outrun the disk. A failed write is thrown by
+ * the next write, flush or close.
+ */
+class WaypointWriter {
+	static final long FLUSH_MS_DEFAULT = 200; // how long a line may wait to be written
+	static final int PENDING_CHARS_MAX = 1 << 20; // writers wait when this much is pending
+
+	private final long flushMillis; // see FLUSH_MS_DEFAULT, 0 writes as soon as possible
+	private final boolean force; // force every commit to disk
+	private final FileChannel channel; // the file, open for appending
+	private final Writer out; // UTF-8 onto channel
+	private final Thread thread; // the writer thread
+	private final char[] line = new char[2 * Waypoint.COORDINATE_CHARS_MAX + 2]; // coordinates of a line being queued
+	private CharArrayWriter pending = new CharArrayWriter(); // lines waiting for a commit
+	private CharArrayWriter writing = new CharArrayWriter(); // lines being committed
+	private long queued, committed; // lines queued and committed so far
+	private boolean flushing; // someone waits in flush
+	private boolean closed;
+	private IOException failure; // the commit that failed
+
+	/**
+	 * WaypointWriter constructor opens the file for appending and starts the
+	 * writer thread
+	 * @param flushMillis how long a line may wait to be written, 0 to write
+	 *        lines as soon as the last commit is done
+	 * @param force true to force each commit to disk with
+	 *        {@link FileChannel#force}, so it survives a system crash and not
+	 *        only a crash of the app
+	 * @throws IOException when the file can't be opened
+	 */
+	WaypointWriter(File file, long flushMillis, boolean force) throws IOException {
+		this.flushMillis = flushMillis;
+		this.force = force;
+		channel = new FileOutputStream(file, true).getChannel();
+		out = new BufferedWriter(Channels.newWriter(channel, "UTF-8"), 1 << 16);
+		thread = new Thread(new Runnable() {
+			public void run() {
+				_run();
+			}
+		}, "WaypointWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The write method queues one line for the next commit
+	 * @throws IOException when an earlier commit failed or the writer is closed
+	 */
+	synchronized void write(String name, double lat, double lon) throws IOException {
+		_check();
+		while (pending.size() >= PENDING_CHARS_MAX) {
+			notifyAll();
+			_wait();
+			_check();
+		}
+		boolean first = pending.size() == 0;
+		writeLine(pending, line, name, lat, lon);
+		queued++;
+		if (first || pending.size() >= PENDING_CHARS_MAX)
+			notifyAll();
+	}
+
+	/**
+	 * The flush method commits the lines queued so far without waiting for
+	 * the flush interval, and returns when they are written
+	 * @throws IOException when the commit failed
+	 */
+	synchronized void flush() throws IOException {
+		long target = queued;
+		while (committed < target && failure == null) {
+			flushing = true;
+			notifyAll();
+			_wait();
+		}
+		flushing = false;
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * The close method commits what is queued and closes the file
+	 * @throws IOException when the last commit failed
+	 */
+	void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("closing waypoints interrupted");
+		} finally {
+			channel.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * The writeLine method writes one "name;longitude;latitude" line, the
+	 * coordinates go through buf
+	 * @param buf a buffer of at least 2 * COORDINATE_CHARS_MAX + 2 chars
+	 */
+	static void writeLine(Writer out, char[] buf, String name, double lat,
+			double lon) throws IOException {
+		out.write(name);
+		int n = 0;
+		buf[n++] = WaypointStore.SEPARATOR.charAt(0);
+		n += Waypoint.formatCoordinate(lon, buf, n);
+		buf[n++] = WaypointStore.SEPARATOR.charAt(0);
+		n += Waypoint.formatCoordinate(lat, buf, n);
+		out.write(buf, 0, n);
+		out.write('\n');
+	}
+
+	/**
+	 * The main method compares the old way of saving, opening and closing the
+	 * file for every waypoint, with group commits, with and without forcing
+	 * them to disk, and prints the saves per second of each
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: WaypointWriter <dir> [saves]");
+			System.exit(1);
+		}
+		File dir = new File(args[0]);
+		int saves = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		char[] buf = new char[2 * Waypoint.COORDINATE_CHARS_MAX + 2];
+
+		File f = _benchmarkFile(dir, "open-close");
+		long start = System.nanoTime();
+		for (int i = 0; i < saves; i++) {
+			Writer w = new BufferedWriter(new FileWriter(f, true));
+			writeLine(w, buf, "wp" + i, i % 180 - 90, i % 360 - 180);
+			w.close();
+		}
+		_report("open/close per save", saves, start);
+
+		// forcing every save is slow, fewer of them
+		int forced = Math.min(saves, 2000);
+		f = _benchmarkFile(dir, "open-force-close");
+		start = System.nanoTime();
+		for (int i = 0; i < forced; i++) {
+			FileOutputStream fos = new FileOutputStream(f, true);
+			Writer w = new BufferedWriter(Channels.newWriter(fos.getChannel(), "UTF-8"));
+			writeLine(w, buf, "wp" + i, i % 180 - 90, i % 360 - 180);
+			w.flush();
+			fos.getChannel().force(false);
+			w.close();
+		}
+		_report("open/force/close per save", forced, start);
+
+		for (int k = 0; k < 2; k++) {
+			boolean force = k == 1;
+			f = _benchmarkFile(dir, force ? "group-force" : "group");
+			start = System.nanoTime();
+			WaypointWriter ww = new WaypointWriter(f, FLUSH_MS_DEFAULT, force);
+			for (int i = 0; i < saves; i++) {
+				ww.write("wp" + i, i % 180 - 90, i % 360 - 180);
+			}
+			ww.close();
+			_report("group commit" + (force ? ", forced" : ""), saves, start);
+		}
+	}
+
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+	// internals
+	// XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX
+
+	/**
+	 * The _run method is the writer thread: it waits for a line, gives others
+	 * the flush interval to join it, and commits them together
+	 */
+	private void _run() {
+		while (true) {
+			long target;
+			synchronized (this) {
+				try {
+					while (pending.size() == 0 && !closed)
+						wait();
+					long deadline = System.currentTimeMillis() + flushMillis;
+					long left;
+					while (!closed && !flushing && pending.size() < PENDING_CHARS_MAX
+							&& (left = deadline - System.currentTimeMillis()) > 0)
+						wait(left);
+				} catch (InterruptedException e) {
+					closed = true;
+				}
+				if (pending.size() == 0 || failure != null)
+					return; // closed
+				CharArrayWriter t = writing;
+				writing = pending;
+				pending = t;
+				target = queued;
+				notifyAll(); // room in pending again
+			}
+
+			IOException error = null;
+			try {
+				writing.writeTo(out);
+				out.flush();
+				if (force)
+					channel.force(false);
+			} catch (IOException e) {
+				error = e;
+			}
+			writing.reset();
+
+			synchronized (this) {
+				if (error != null)
+					failure = error;
+				else
+					committed = target;
+				notifyAll();
+			}
+		}
+	}
+
+	private void _check() throws IOException {
+		if (failure != null)
+			throw failure;
+		if (closed)
+			throw new IOException("the waypoints file is closed");
+	}
+
+	private void _wait() throws IOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("saving waypoints interrupted");
+		}
+	}
+
+	private static File _benchmarkFile(File dir, String name) {
+		File f = new File(dir, "waypoints-" + name + ".txt");
+		f.delete();
+		return f;
+	}
+
+	private static void _report(String what, int saves, long start) {
+		long nanos = System.nanoTime() - start;
+		System.out.println(what + ": " + saves + " saves in " + nanos / 1000000
+				+ "ms, " + (long) (saves * 1e9 / nanos) + "/s");
+	}
+}